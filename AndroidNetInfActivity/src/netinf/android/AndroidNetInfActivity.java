@@ -20,6 +20,7 @@ import netinf.android.input.qrscanning.IntentIntegrator;
 import netinf.android.input.qrscanning.IntentResult;
 import netinf.android.resolution.AndroidLocalResolutionService;
 import netinf.android.resolution.local.database.MySQLiteHelper;
+import netinf.android.transferdispatcher.PeerStats;
 import netinf.android.wifi.NetInfWifiDirectManager;
 import netinf.node.access.AccessServer;
 import netinf.node.api.NetInfNode;
@@ -88,6 +89,9 @@ public class AndroidNetInfActivity extends Activity{
 	private static final String NCS_SERVER_URL_PROPERTY    = "server.ncs.url";
 	private static final String NRS_SERVER_URL_PROPERTY    = "server.nrs.url";
 	private static final String QRCODE_SERVER_URL_PROPERTY = "server.qrc.url";
+	
+	//Transfer statistics per peer, kept in the private files of the app
+	private static final String PEER_STATS_FILE = "peerstats.properties";
 		
 	//Image picking variables
 	private static final int PICK_FROM_CAMERA  = 0;
@@ -216,6 +220,9 @@ public class AndroidNetInfActivity extends Activity{
         if(D) Log.d(TAG, "Target NCS URL = "            + NCS_SERVER_URL);
         if(D) Log.d(TAG, "Target NRS URL = "            + NRS_SERVER_URL);
         if(D) Log.d(TAG, "Target QR_CODE SERVER URL = " + QRCODE_SERVER_URL);
+        
+        //Loading the transfer statistics that rank the locators of each peer
+        PeerStats.getInstance().load(new File(getFilesDir(), PEER_STATS_FILE));
        
         //Set up wifi direct
         
@@ -289,6 +296,7 @@ public class AndroidNetInfActivity extends Activity{
     @Override
     public void onStop() {
         super.onStop();
+        PeerStats.getInstance().save();
         if(D) Log.e(TAG, "-- ON STOP --");
     }
 
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.util.Properties;
 
 import netinf.android.module.AndroidNetInfModule;
+import netinf.android.resolution.RemoteLocatorCache;
 import android.app.Application;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
@@ -29,6 +30,13 @@ public class AndroidNetInfApplication extends Application {
 //        injector = Guice.createInjector(new SenderAndroidNetInfModule(mNodeProperties));
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // Cached NRS locators can be fetched again
+        RemoteLocatorCache.getInstance().clear();
+    }
+
     public Injector getInjector() {
         return injector;
     }
@@ -18,6 +18,7 @@ package netinf.android;
 
 import java.util.ArrayList;
 
+import netinf.android.transferdispatcher.PeerStats;
 import netinf.android.wifi.NetInfWifiDirectManager;
 
 import android.bluetooth.BluetoothDevice;
@@ -36,6 +37,8 @@ public class NetInfBroadcastReceiver extends BroadcastReceiver {
 
     // Debugging
     private static final String TAG = "NetInfBroadcastReceiver";
+
+    private static final String NIMACBT = "nimacbt://";
 	
     private WifiP2pManager manager;
     private Channel channel;
@@ -109,6 +112,9 @@ public class NetInfBroadcastReceiver extends BroadcastReceiver {
         	Log.d(TAG, "BluetoothDevice.ACTION_FOUND");
         	BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
         	bluetoothDiscoveredPeers.add(device.getAddress());
+        	// The signal strength ranks the locators of this device
+        	short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, PeerStats.UNKNOWN_RSSI);
+        	PeerStats.getInstance().recordRssi(NIMACBT + device.getAddress(), rssi);
         	Log.d(TAG, "Bluetooth Device Found = " + device.getName() + " " + device.getAddress());
         	Log.d(TAG, "bluetoothDiscoveredPeers = " + bluetoothDiscoveredPeers.toString()); 
         	       	
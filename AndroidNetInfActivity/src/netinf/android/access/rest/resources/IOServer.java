@@ -1,13 +1,11 @@
 package netinf.android.access.rest.resources;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.File;
 import java.util.List;
-import java.util.Random;
 
 import netinf.android.common.datamodel.SailDefinedAttributeIdentification;
 import netinf.android.common.datamodel.SailDefinedLabelName;
+import netinf.android.resolution.RemoteLocatorCache;
 import netinf.android.transferdispatcher.TransferDispatcher;
 import netinf.common.communication.NetInfNodeConnection;
 import netinf.common.datamodel.DatamodelFactory;
@@ -88,7 +86,6 @@ public class IOServer extends AndroidNetInfResource {
 	
     @Post  
     public String processHTTPPostRequest(Representation entity) {  
-		byte[] myByteArray = null;
 		String resultFilePath = null;
         
         Form form = new Form(entity); 
@@ -103,25 +100,25 @@ public class IOServer extends AndroidNetInfResource {
 	        	
         		if(D) Log.d(TAG, "The Transfer dispatcher will attempt to transfer the file from a suitable device/NCS");
 	        	
+				String hash = myIO.getIdentifier().getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
+				resultFilePath = Environment.getExternalStorageDirectory() + "/MySharedFiles/" + hash;
+
 		        try {
-		        	if(D) Log.d(TAG, "Calling Transfer dispatcher getByteArray");
-		        	myByteArray = tsDispatcher.getByteArray(myIO);
+		        	if(D) Log.d(TAG, "Calling Transfer dispatcher getFile");
+		        	tsDispatcher.getFile(myIO, new File(resultFilePath));
 				} 
-		
-		        catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
 		        catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+		        	Log.e(TAG, "The transfer failed: " + e.getMessage());
+		        	resultFilePath = null;
 				}
 	        
-				if(myByteArray!=null){
-					String hash = myIO.getIdentifier().getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
-					resultFilePath = Environment.getExternalStorageDirectory() + "/MySharedFiles/" + hash;
-			        writeByteStreamToFile (resultFilePath, myByteArray);		        				
-				} 
+				if(resultFilePath==null){
+					// The cached locators did not work, ask the NRS again next time
+					Identifier identifier = myIO.getIdentifier();
+					RemoteLocatorCache.getInstance().invalidate(
+							identifier.getIdentifierLabel(SailDefinedLabelName.HASH_ALG.getLabelName()).getLabelValue(),
+							identifier.getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue());
+				}
 
 	        }
 	        else{
@@ -221,7 +218,6 @@ public class IOServer extends AndroidNetInfResource {
 	private InformationObject formToIO(Form form){
 		
 		int counter,i = 0;
-		Random randomGenerator = new Random();
 		InformationObject myReceivedIO = datamodelFactory.createInformationObject();
 		
         String hashAlg = form.getFirstValue("hashAlg");
@@ -245,7 +241,7 @@ public class IOServer extends AndroidNetInfResource {
             
             Attribute priorityAttr = datamodelFactory.createAttribute();
             priorityAttr.setIdentification(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-            priorityAttr.setValue(randomGenerator.nextInt(5000));
+            priorityAttr.setValue(i); // ties in the score keep the order of the form
             newLocator.addSubattribute(priorityAttr);
             				                			                
             myReceivedIO.addAttribute(newLocator);
@@ -270,7 +266,7 @@ public class IOServer extends AndroidNetInfResource {
             
             Attribute priorityAttr = datamodelFactory.createAttribute();
             priorityAttr.setIdentification(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-            priorityAttr.setValue(randomGenerator.nextInt(5000));
+            priorityAttr.setValue(i); // ties in the score keep the order of the form
             newLocator.addSubattribute(priorityAttr);
             				                			                
             myReceivedIO.addAttribute(newLocator);
@@ -295,7 +291,7 @@ public class IOServer extends AndroidNetInfResource {
             
             Attribute priorityAttr = datamodelFactory.createAttribute();
             priorityAttr.setIdentification(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-            priorityAttr.setValue(randomGenerator.nextInt(5000));
+            priorityAttr.setValue(i); // ties in the score keep the order of the form
             newLocator.addSubattribute(priorityAttr);
             				                			                
             myReceivedIO.addAttribute(newLocator);
@@ -303,29 +299,4 @@ public class IOServer extends AndroidNetInfResource {
 		
 		return myReceivedIO;		
 	}
-	
-	private void writeByteStreamToFile (String targetPath, byte[] myByteArray){
-			
-		FileOutputStream fos = null;
-       
-        try {
-			fos = new FileOutputStream(targetPath);
-			fos.write(myByteArray);
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-        finally{	        	
-   			if(fos!=null)
-				try {
-					fos.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}        	
-        }		
-	}	
 }
@@ -0,0 +1,146 @@
+package netinf.android.common.communication;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/**
+ * Holds the one HTTP client used to talk to the NRS and the NCS.
+ * 
+ * Connections are pooled by a thread-safe connection manager, capped per
+ * route and kept alive between requests. A daemon thread closes the ones
+ * that have been idle for longer than the keep-alive time. Responses must
+ * be consumed, see {@link #consume(HttpResponse)}, so that their
+ * connection goes back to the pool.
+ */
+public final class SharedHttpClient {
+
+	// Debugging
+	private static final String TAG = "SharedHttpClient";
+	private static final boolean D = true;
+
+	private static final int MAX_TOTAL = 20;
+	private static final int MAX_PER_ROUTE = 6;
+	private static final int KEEP_ALIVE_SECONDS = 30;
+	private static final int TIMEOUT = 10000;
+	private static final long POOL_TIMEOUT = 10000;
+
+	private static HttpClient sClient;
+
+	private SharedHttpClient() {
+	}
+
+	/**
+	 * Returns the shared client, creating it on first use.
+	 * 
+	 * @return the shared HTTP client
+	 */
+	public static synchronized HttpClient getInstance() {
+		if (sClient == null) {
+			sClient = create();
+		}
+		return sClient;
+	}
+
+	/**
+	 * Consumes the rest of a response so its connection can be reused.
+	 * 
+	 * @param response the response, may be null
+	 */
+	public static void consume(HttpResponse response) {
+		if (response == null) {
+			return;
+		}
+		HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			try {
+				entity.consumeContent();
+			} catch (IOException e) {
+				Log.e(TAG, "Failed to consume response: " + e.getMessage());
+			}
+		}
+	}
+
+	private static HttpClient create() {
+		if(D) Log.d(TAG, "Creating pooled HTTP client");
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+		HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, TIMEOUT);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_PER_ROUTE));
+		ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+		final ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+		DefaultHttpClient client = new DefaultHttpClient(manager, params);
+		client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				HeaderElementIterator it = new BasicHeaderElementIterator(
+						response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+				while (it.hasNext()) {
+					HeaderElement element = it.nextElement();
+					if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+						try {
+							return Long.parseLong(element.getValue()) * 1000;
+						} catch (NumberFormatException e) {
+							// fall back to the default
+						}
+					}
+				}
+				return KEEP_ALIVE_SECONDS * 1000L;
+			}
+		});
+
+		Thread evictor = new Thread("IdleConnectionEvictor") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(KEEP_ALIVE_SECONDS * 1000L / 2);
+						manager.closeExpiredConnections();
+						manager.closeIdleConnections(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+					}
+				} catch (InterruptedException e) {
+					if(D) Log.d(TAG, "Idle connection evictor stopped");
+				}
+			}
+		};
+		evictor.setDaemon(true);
+		evictor.start();
+
+		return client;
+	}
+}
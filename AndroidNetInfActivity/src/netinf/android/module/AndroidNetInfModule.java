@@ -3,6 +3,7 @@ package netinf.android.module;
 import java.util.Properties;
 
 import netinf.android.access.rest.AndroidRESTAccessServer;
+import netinf.android.common.communication.SharedHttpClient;
 import netinf.android.resolution.AndroidLocalResolutionService;
 import netinf.android.resolution.AndroidRemoteNameResolutionService;
 import netinf.common.communication.AsyncReceiveHandler;
@@ -23,6 +24,7 @@ import netinf.node.transfer.TransferController;
 import netinf.node.transfer.impl.TransferControllerImpl;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.http.client.HttpClient;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
@@ -66,6 +68,9 @@ public class AndroidNetInfModule extends AbstractModule {
         bind(TransferController.class).to(TransferControllerImpl.class).in(Singleton.class);
         
         bind(AccessServer.class).to(AndroidRESTAccessServer.class).in(Singleton.class);
+        
+        // One pooled client, so requests to the NRS reuse their connections
+        bind(HttpClient.class).toInstance(SharedHttpClient.getInstance());
 
     }
 	
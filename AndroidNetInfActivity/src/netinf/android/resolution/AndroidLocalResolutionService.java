@@ -62,6 +62,10 @@ public class AndroidLocalResolutionService extends AndroidAbstractResolutionServ
             MySQLiteHelper.HASH_ALG,
             MySQLiteHelper.HASH_CONTENT};
 
+	private static final String SELECT_BY_HASH = MySQLiteHelper.HASH_CONTENT + " = ?";
+	private static final String SELECT_BY_HASH_AND_ALG = SELECT_BY_HASH + " AND "
+			+ MySQLiteHelper.HASH_ALG + " = ?";
+
 
    @Inject
    public AndroidLocalResolutionService(DatamodelFactory datamodelFactory) {
@@ -93,7 +97,7 @@ public class AndroidLocalResolutionService extends AndroidAbstractResolutionServ
 	   String hash = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
 	   if(D) Log.d(TAG, "Deleting IO with hash: " + hash);
 	   int numberOfRows = database.delete(MySQLiteHelper.TABLE_NAME, MySQLiteHelper.HASH_CONTENT
-				+ " = '" + hash + "'", null);
+				+ " = ?", new String[] {hash});
 		if(numberOfRows>0){
 			if(D) Log.d(TAG, "IO deleted successfully");
 		}
@@ -110,24 +114,33 @@ public class AndroidLocalResolutionService extends AndroidAbstractResolutionServ
    public InformationObject get(Identifier identifier) {
 	   
 	   if(D) Log.d(TAG, "GET IO");
-	   InformationObject myTmpIO = null;
 	   String hash = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
-
-		Cursor cursor = database.query(MySQLiteHelper.TABLE_NAME,
-				allColumns, null, null,null, null, null);
-		if(cursor.moveToFirst()){			
-			while (!cursor.isAfterLast()) {				
-				String tmpFileName = cursor.getString(MySQLiteHelper.HASH_CONTENT_COLUMN_INDEX);
-				if(tmpFileName.equals(hash)){
-					myTmpIO = cursorToIO(cursor);
-					if(D) Log.d(TAG, "IO found in the database. IO =  " + myTmpIO.toString());
-					return myTmpIO;									
-				}
-				cursor.moveToNext();
-			}			
-		}
-		if(D) Log.d(TAG, "The requested IO was not found in the database.");
-		return null;
+	   IdentifierLabel hashAlgLabel = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_ALG.getLabelName());
+
+	   // Both lookups are served by the index on (HASH_CONTENT, HASH_ALG)
+	   String selection;
+	   String[] selectionArgs;
+	   if (hashAlgLabel != null) {
+		   selection = SELECT_BY_HASH_AND_ALG;
+		   selectionArgs = new String[] {hash, hashAlgLabel.getLabelValue()};
+	   } else {
+		   selection = SELECT_BY_HASH;
+		   selectionArgs = new String[] {hash};
+	   }
+
+	   Cursor cursor = database.query(MySQLiteHelper.TABLE_NAME,
+			   allColumns, selection, selectionArgs, null, null, null, "1");
+	   try {
+		   if (cursor.moveToFirst()) {
+			   InformationObject myTmpIO = cursorToIO(cursor);
+			   if(D) Log.d(TAG, "IO found in the database. IO =  " + myTmpIO.toString());
+			   return myTmpIO;
+		   }
+	   } finally {
+		   cursor.close();
+	   }
+	   if(D) Log.d(TAG, "The requested IO was not found in the database.");
+	   return null;
    }
 
    //Unimplemented
@@ -148,14 +161,14 @@ public class AndroidLocalResolutionService extends AndroidAbstractResolutionServ
 		values.put(MySQLiteHelper.HASH_ALG, hashAlg);
 		values.put(MySQLiteHelper.HASH_CONTENT, hashCont);
 		
-		long insertId = database.insert(MySQLiteHelper.TABLE_NAME, null,values);
-		// To show how to query
-		Cursor cursor = database.query(MySQLiteHelper.TABLE_NAME,
-				allColumns, MySQLiteHelper._ID + " = " + insertId, null,
-				null, null, null);
-		cursor.moveToFirst();
-		InformationObject myTmpIO = cursorToIO(cursor);
-		if(D) Log.d(TAG, "The IO was successfully put. IO = " + myTmpIO.toString());
+		// The unique index makes storing a known IO a no-op
+		long insertId = database.insertWithOnConflict(MySQLiteHelper.TABLE_NAME, null, values,
+				SQLiteDatabase.CONFLICT_IGNORE);
+		if (insertId == -1) {
+			if(D) Log.d(TAG, "The IO was already stored. Hash = " + hashCont);
+		} else {
+			if(D) Log.d(TAG, "The IO was successfully put. Hash = " + hashCont);
+		}
 
    }
    
@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Random;
 
 import netinf.android.AndroidNetInfActivity;
+import netinf.android.common.communication.SharedHttpClient;
 import netinf.android.common.datamodel.SailDefinedAttributeIdentification;
 import netinf.android.common.datamodel.SailDefinedLabelName;
 import netinf.common.datamodel.DatamodelFactory;
@@ -56,7 +57,6 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONValue;
 
@@ -85,7 +85,7 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 	static MultipartEntity reqEntity = new MultipartEntity();
 	static HttpPost post;
 	static Random randomGenerator = new Random();
-	HttpClient client = new DefaultHttpClient();
+	private final HttpClient client;
 	HttpResponse response;
 	int resp_code=0;
 	String bluetoothMac = null;
@@ -94,8 +94,9 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 	
 
    @Inject
-   public AndroidRemoteNameResolutionService(DatamodelFactory datamodelFactory) {
+   public AndroidRemoteNameResolutionService(DatamodelFactory datamodelFactory, HttpClient client) {
       this.datamodelFactory = datamodelFactory;
+      this.client = client;
       NRS_SERVER = AndroidNetInfActivity.NRS_SERVER_URL;
    }
    
@@ -139,6 +140,8 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				SharedHttpClient.consume(response);
 			}
 		} else {
 		System.err.println("Publish creation failed!");
@@ -165,6 +168,11 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 	    String hashValue   = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
 
 	    String niname = "ni:///" + hashAlg + ";" + hashValue;
+
+	    InformationObject cachedIO = RemoteLocatorCache.getInstance().get(hashAlg, hashValue);
+	    if (cachedIO != null) {
+	    	return cachedIO;
+	    }
 		
 		try {
 		
@@ -195,7 +203,6 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 							String locator = "";
 							myIO = datamodelFactory.createInformationObject();
 							myIO.setIdentifier(identifier);
-						    Random randomGenerator = new Random();
 						    String locatorType = null;
 													
 							// add new locations to loc_array	
@@ -216,7 +223,7 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 				                
 				                Attribute priorityAttr = datamodelFactory.createAttribute();
 				                priorityAttr.setIdentification(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-				                priorityAttr.setValue(randomGenerator.nextInt(5000));
+				                priorityAttr.setValue(i); // ties in the peer score keep the NRS order
 				                newLocator.addSubattribute(priorityAttr);
 				                				                			                
 				                myIO.addAttribute(newLocator);
@@ -233,6 +240,7 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 							}
 							
 							if(D) Log.d(TAG, "IO found in the NRS. IO =  " + myIO.toString());
+							RemoteLocatorCache.getInstance().put(hashAlg, hashValue, myIO);
 						}
 						else
 							if(D) Log.d(TAG, "The requested IO was not found in the database.");
@@ -251,6 +259,8 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 		
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			SharedHttpClient.consume(response);
 		}
 	    	
 		return myIO;
@@ -301,6 +311,8 @@ public class AndroidRemoteNameResolutionService extends AndroidAbstractResolutio
 
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				SharedHttpClient.consume(response);
 			}
 		} else {
 		System.err.println("Publish creation failed!");
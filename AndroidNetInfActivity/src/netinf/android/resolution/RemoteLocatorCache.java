@@ -0,0 +1,88 @@
+package netinf.android.resolution;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import netinf.common.datamodel.InformationObject;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Caches the locators returned by the remote NRS, so repeated retrievals of
+ * the same IO skip the NRS round trip. Entries expire after a time to live,
+ * the least recently used ones are evicted when the cache is full, and an
+ * entry is invalidated when a transfer from its locators fails.
+ */
+public class RemoteLocatorCache {
+
+	// Debugging
+	private static final String TAG = "RemoteLocatorCache";
+	private static final boolean D = true;
+
+	private static final int MAX_ENTRIES = 128;
+	private static final long TIME_TO_LIVE = 60 * 1000;
+
+	private static RemoteLocatorCache instance;
+
+	private final Map<String, Entry> entries =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+					return size() > MAX_ENTRIES;
+				}
+			};
+
+	private RemoteLocatorCache() {
+	}
+
+	public static synchronized RemoteLocatorCache getInstance() {
+		if (instance == null) {
+			instance = new RemoteLocatorCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns a copy of the cached IO for a hash, or null if there is none
+	 * or it has expired.
+	 */
+	public synchronized InformationObject get(String hashAlg, String hash) {
+		String key = hashAlg + ";" + hash;
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (SystemClock.elapsedRealtime() - entry.fetched > TIME_TO_LIVE) {
+			entries.remove(key);
+			return null;
+		}
+		if(D) Log.d(TAG, "Cached locators found for " + key);
+		return (InformationObject) entry.io.clone();
+	}
+
+	public synchronized void put(String hashAlg, String hash, InformationObject io) {
+		entries.put(hashAlg + ";" + hash,
+				new Entry((InformationObject) io.clone(), SystemClock.elapsedRealtime()));
+	}
+
+	public synchronized void invalidate(String hashAlg, String hash) {
+		if (entries.remove(hashAlg + ";" + hash) != null) {
+			if(D) Log.d(TAG, "Invalidated locators of " + hashAlg + ";" + hash);
+		}
+	}
+
+	public synchronized void clear() {
+		if(D) Log.d(TAG, "Clearing " + entries.size() + " entries");
+		entries.clear();
+	}
+
+	private static class Entry {
+		final InformationObject io;
+		final long fetched;
+
+		Entry(InformationObject io, long fetched) {
+			this.io = io;
+			this.fetched = fetched;
+		}
+	}
+}
@@ -8,7 +8,7 @@ import android.util.Log;
 public class MySQLiteHelper extends SQLiteOpenHelper {  
 	
     private static final String DATABASE_NAME    = "localresolutionservice";
-    private static final int    DATABASE_VERSION = 6;
+    private static final int    DATABASE_VERSION = 7;
     public  static final String TABLE_NAME       = "LOCAL_RESOLUTION_TABLE";
  
     //Column names
@@ -28,6 +28,17 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
             " (" + _ID           +" integer primary key autoincrement, " + 
                    HASH_ALG      + " text not null," +
                    HASH_CONTENT  + " text not null);"; 
+    
+    // Unique index used by the lookups. The content comes first so that
+    // lookups by content alone can use the index as well.
+    private static final String INDEX_NAME   = "HASH_INDEX";
+    private static final String INDEX_CREATE = "create unique index if not exists " + INDEX_NAME +
+            " on " + TABLE_NAME + " (" + HASH_CONTENT + ", " + HASH_ALG + ");";
+    
+    // Keeps the first row of every (HASH_ALG, HASH_CONTENT) pair
+    private static final String REMOVE_DUPLICATES = "delete from " + TABLE_NAME +
+            " where " + _ID + " not in (select min(" + _ID + ") from " + TABLE_NAME +
+            " group by " + HASH_ALG + ", " + HASH_CONTENT + ");";
   
     public MySQLiteHelper(Context context) {  
         super(context, DATABASE_NAME, null, DATABASE_VERSION);  
@@ -36,15 +47,26 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
     @Override  
     public void onCreate(SQLiteDatabase database) {  
         database.execSQL(DATABASE_CREATE);  
+        database.execSQL(INDEX_CREATE);
     }  
   
     @Override  
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {  
+		if (oldVersion < 6) {
+			Log.w(MySQLiteHelper.class.getName(),
+					"Upgrading database from version " + oldVersion + " to "
+							+ newVersion + ", which will destroy all old data");
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+			onCreate(db);
+			return;
+		}
+		
+		// Version 7 adds the unique index, duplicates have to go first
 		Log.w(MySQLiteHelper.class.getName(),
 				"Upgrading database from version " + oldVersion + " to "
-						+ newVersion + ", which will destroy all old data");
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-		onCreate(db); 
+						+ newVersion + ", removing duplicate rows");
+		db.execSQL(REMOVE_DUPLICATES);
+		db.execSQL(INDEX_CREATE);
     }  
   
 } 
\ No newline at end of file
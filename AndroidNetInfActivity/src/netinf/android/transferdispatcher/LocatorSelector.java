@@ -28,8 +28,10 @@ package netinf.android.transferdispatcher;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import netinf.android.common.datamodel.SailDefinedAttributeIdentification;
 import netinf.common.datamodel.DefinedAttributePurpose;
@@ -77,30 +79,44 @@ public class LocatorSelector implements Iterator<String> {
          }
       }
 
+      // Best scored peers first, explicit priorities only break ties. The scores are
+      // taken once, since transfers running meanwhile keep updating them.
+      final Map<Attribute, Double> scores = new HashMap<Attribute, Double>();
+      PeerStats stats = PeerStats.getInstance();
+      for (Attribute locator : result) {
+         String value = locator.getValue(String.class);
+         scores.put(locator, value == null ? 0.0 : stats.score(value));
+      }
       Collections.sort(result, new Comparator<Attribute>() {
          @Override
          public int compare(Attribute o1, Attribute o2) {
-            Attribute prioAttr1 = o1.getSingleSubattribute(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-            Attribute prioAttr2 = o2.getSingleSubattribute(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
-            int prio1 = 9999; // very low priority if now field specified
-            int prio2 = 9999;
-
-            if (prioAttr1 != null) {
-               prio1 = prioAttr1.getValue(Integer.class);
-            }
-
-            if (prioAttr2 != null) {
-               prio2 = prioAttr2.getValue(Integer.class);
+            int byScore = scores.get(o2).compareTo(scores.get(o1));
+            if (byScore != 0) {
+               return byScore;
             }
-
-            return new Integer(prio1).compareTo(prio2);
+            return new Integer(getPriority(o1)).compareTo(getPriority(o2));
          }
       });
 
-      // return sorted prority sorted list
+      // return score sorted list
       return result;
    }
 
+   /**
+    * Provides the priority of a locator.
+    * 
+    * @param locator
+    *           The locator.
+    * @return The priority, lower values first.
+    */
+   private static int getPriority(Attribute locator) {
+      Attribute prioAttr = locator.getSingleSubattribute(SailDefinedAttributeIdentification.LOCATOR_PRIORITY.getURI());
+      if (prioAttr == null) {
+         return 9999; // very low priority if now field specified
+      }
+      return prioAttr.getValue(Integer.class);
+   }
+
    @Override
    public boolean hasNext() {
       return locatorIterator.hasNext();
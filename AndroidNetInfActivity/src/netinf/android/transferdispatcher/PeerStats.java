@@ -0,0 +1,272 @@
+package netinf.android.transferdispatcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+import android.util.Log;
+
+/**
+ * Remembers how well each peer served transfers, so locators can be ranked by
+ * what they are likely to deliver instead of at random. A peer is identified by
+ * its locator, e.g. nimacbt://00:11:22:33:44:55.
+ * 
+ * For every peer the table keeps a moving average of the throughput, the number
+ * of successful and failed transfers, and the signal strength it was last
+ * discovered with. Throughput and counts are saved to a file so the ranking
+ * survives restarts; the signal strength is only meaningful right now and is
+ * not saved.
+ */
+public class PeerStats {
+
+	// Debugging
+	private static final String TAG = "PeerStats";
+	private static final boolean D = true;
+
+	private static final int MAX_PEERS = 64;
+
+	// Weight of a new throughput sample in the moving average
+	private static final double SMOOTHING = 0.3;
+
+	// Counts are halved beyond this, so old history fades out
+	private static final int MAX_HISTORY = 20;
+
+	// Throughput in bytes per millisecond assumed for peers never measured
+	private static final double BLUETOOTH_THROUGHPUT = 80;
+	private static final double WIFI_THROUGHPUT      = 1500;
+	private static final double HTTP_THROUGHPUT      = 400;
+	private static final double OTHER_THROUGHPUT     = 10;
+
+	// Signal strengths in dBm at and below which a Bluetooth link is considered good and unusable
+	private static final int GOOD_RSSI = -60;
+	private static final int BAD_RSSI  = -100;
+
+	// Minimum time in milliseconds between two saves triggered by transfers
+	private static final long SAVE_INTERVAL = 30 * 1000;
+
+	public static final short UNKNOWN_RSSI = Short.MIN_VALUE;
+
+	private static final String NIMACBT = "nimacbt://";
+	private static final String NIMACWD = "nimacwd://";
+	private static final String NIIP    = "niip://";
+	private static final String NIHTTP  = "nihttp://";
+
+	private static PeerStats instance;
+
+	private final Map<String, Peer> peers =
+			new LinkedHashMap<String, Peer>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Peer> eldest) {
+					return size() > MAX_PEERS;
+				}
+			};
+
+	private File file;
+
+	// Whether the table has changed since it was last saved, and when that was
+	private boolean dirty;
+	private long lastSave;
+
+	private PeerStats() {
+	}
+
+	public static synchronized PeerStats getInstance() {
+		if (instance == null) {
+			instance = new PeerStats();
+		}
+		return instance;
+	}
+
+	/**
+	 * Ranks a locator: the higher the score, the sooner the locator should be
+	 * tried. The score is the expected throughput, scaled down by the failure
+	 * rate and, for Bluetooth, by a weak signal.
+	 */
+	public synchronized double score(String locator) {
+		Peer peer = peers.get(locator);
+		double throughput = defaultThroughput(locator);
+		double reliability = 0.5;
+		short rssi = UNKNOWN_RSSI;
+		if (peer != null) {
+			if (peer.throughput > 0) {
+				throughput = peer.throughput;
+			}
+			// Laplace estimate, so a single failure does not rule out a peer
+			reliability = (peer.successes + 1.0) / (peer.successes + peer.failures + 2.0);
+			rssi = peer.rssi;
+		}
+		return throughput * reliability * signalFactor(rssi);
+	}
+
+	/**
+	 * Records the signal strength a peer was discovered with.
+	 */
+	public synchronized void recordRssi(String locator, short rssi) {
+		get(locator).rssi = rssi;
+	}
+
+	/**
+	 * Records the throughput of a completed transfer.
+	 */
+	public synchronized void recordTransfer(String locator, long bytes, long millis) {
+		if (bytes <= 0) {
+			return;
+		}
+		double sample = (double) bytes / Math.max(1, millis);
+		Peer peer = get(locator);
+		peer.throughput = peer.throughput > 0
+				? SMOOTHING * sample + (1 - SMOOTHING) * peer.throughput
+				: sample;
+		dirty = true;
+		if(D) Log.d(TAG, locator + ": " + bytes + " bytes in " + millis + " ms");
+	}
+
+	/**
+	 * Records that a peer delivered a verified BO.
+	 */
+	public synchronized void recordSuccess(String locator) {
+		Peer peer = get(locator);
+		peer.successes++;
+		fade(peer);
+		dirty = true;
+	}
+
+	/**
+	 * Records that a transfer from a peer failed or delivered wrong data.
+	 */
+	public synchronized void recordFailure(String locator) {
+		Peer peer = get(locator);
+		peer.failures++;
+		fade(peer);
+		dirty = true;
+	}
+
+	/**
+	 * Loads the saved table from a file and remembers the file for {@link #save()}.
+	 * A missing or unreadable file leaves the table empty.
+	 */
+	public synchronized void load(File source) {
+		file = source;
+		if (!file.exists()) {
+			return;
+		}
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not load " + file + ": " + e.getMessage());
+			return;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+
+		for (String locator : properties.stringPropertyNames()) {
+			String[] fields = properties.getProperty(locator).split(";");
+			try {
+				Peer peer = get(locator);
+				peer.throughput = Double.parseDouble(fields[0]);
+				peer.successes = Integer.parseInt(fields[1]);
+				peer.failures = Integer.parseInt(fields[2]);
+			} catch (RuntimeException e) {
+				Log.w(TAG, "Skipping invalid stats of " + locator);
+				peers.remove(locator);
+			}
+		}
+		if(D) Log.d(TAG, "Loaded stats of " + peers.size() + " peers");
+	}
+
+	/**
+	 * Saves the table if it has changed and the last save is at least
+	 * SAVE_INTERVAL ago, so a burst of transfers does not write the file after
+	 * every one of them. Changes not saved here are saved by {@link #save()}.
+	 */
+	public synchronized void saveIfDue() {
+		if (dirty && System.currentTimeMillis() - lastSave >= SAVE_INTERVAL) {
+			save();
+		}
+	}
+
+	/**
+	 * Saves the table to the file it was loaded from.
+	 */
+	public synchronized void save() {
+		if (file == null) {
+			return;
+		}
+		dirty = false;
+		lastSave = System.currentTimeMillis();
+		Properties properties = new Properties();
+		for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+			Peer peer = entry.getValue();
+			properties.setProperty(entry.getKey(),
+					peer.throughput + ";" + peer.successes + ";" + peer.failures);
+		}
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			properties.store(out, "Transfer statistics per peer: throughput;successes;failures");
+		} catch (IOException e) {
+			Log.w(TAG, "Could not save " + file + ": " + e.getMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private Peer get(String locator) {
+		Peer peer = peers.get(locator);
+		if (peer == null) {
+			peer = new Peer();
+			peers.put(locator, peer);
+		}
+		return peer;
+	}
+
+	private static void fade(Peer peer) {
+		if (peer.successes + peer.failures > MAX_HISTORY) {
+			peer.successes /= 2;
+			peer.failures /= 2;
+		}
+	}
+
+	private static double defaultThroughput(String locator) {
+		if (locator.startsWith(NIMACBT)) {
+			return BLUETOOTH_THROUGHPUT;
+		}
+		if (locator.startsWith(NIIP) || locator.startsWith(NIMACWD)) {
+			return WIFI_THROUGHPUT;
+		}
+		if (locator.startsWith(NIHTTP)) {
+			return HTTP_THROUGHPUT;
+		}
+		return OTHER_THROUGHPUT;
+	}
+
+	/**
+	 * Scales a score by signal strength, from 1 at GOOD_RSSI and above down to
+	 * almost nothing near BAD_RSSI. Peers without a known signal are not scaled.
+	 */
+	private static double signalFactor(short rssi) {
+		if (rssi == UNKNOWN_RSSI) {
+			return 1;
+		}
+		double factor = (double) (rssi - BAD_RSSI) / (GOOD_RSSI - BAD_RSSI);
+		return Math.max(0.05, Math.min(1, factor));
+	}
+
+	private static class Peer {
+		double throughput;
+		int successes;
+		int failures;
+		short rssi = UNKNOWN_RSSI;
+	}
+}
@@ -25,23 +25,41 @@
  */
 package netinf.android.transferdispatcher;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import netinf.android.common.datamodel.SailDefinedLabelName;
+import netinf.android.common.security.hashing.HashingSHA256_EncodingBase64URL;
 import netinf.android.transferdispatcher.providers.BluetoothProvider;
 import netinf.android.transferdispatcher.providers.ByteArrayProvider;
 import netinf.android.transferdispatcher.providers.HttpProvider;
+import netinf.android.transferdispatcher.providers.StreamProvider;
 import netinf.android.transferdispatcher.providers.TcpProvider;
+import netinf.common.datamodel.Identifier;
 import netinf.common.datamodel.InformationObject;
 import netinf.common.log.demo.DemoLevel;
 import netinf.node.transferdispatcher.streamprovider.NetInfNoStreamProviderFoundException;
-import netinf.node.transferdispatcher.streamprovider.StreamProvider;
 
 import org.apache.log4j.Logger;
 
 import android.bluetooth.BluetoothAdapter;
+import android.os.SystemClock;
 
 /**
  * The TransferDispatcher. Responsible for Providing stream to IOs/Files.
@@ -54,9 +72,22 @@ public final class TransferDispatcher {
 
    private static final Logger LOG = Logger.getLogger(TransferDispatcher.class);
    private static final String NCS_SERVER_LOCATOR      = "nihttp://192.36.165.136:8183";
+   private static final String SHA_256                 = "sha-256";
+   // Number of locators a BO is requested from at the same time
+   private static final int RACE_WIDTH = 3;
+   private static final String PART_SUFFIX             = ".part";
    private List<StreamProvider> streamProviders;
+   private final PeerStats peerStats = PeerStats.getInstance();
    private List<ByteArrayProvider> byteArrayProviders;
    private static TransferDispatcher instance;
+   private final ExecutorService transferExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "TransferDispatcher");
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
    
 
 
@@ -75,13 +106,23 @@ public final class TransferDispatcher {
    }
    
    /**
-    * Adds available ByetArrayProviders to the TD.
+    * Adds available ByetArrayProviders and StreamProviders to the TD.
     */
    private void addByetArrayProviders() {
+	   BluetoothProvider bluetoothProvider = new BluetoothProvider();
+	   TcpProvider tcpProvider = new TcpProvider();
+	   HttpProvider httpProvider = new HttpProvider();
+
 	   byteArrayProviders = new ArrayList<ByteArrayProvider>();
-	   byteArrayProviders.add(new BluetoothProvider());
-	   byteArrayProviders.add(new TcpProvider());
-	   byteArrayProviders.add(new HttpProvider());
+	   byteArrayProviders.add(bluetoothProvider);
+	   byteArrayProviders.add(tcpProvider);
+	   byteArrayProviders.add(httpProvider);
+
+	   // The same providers stream BOs straight into files
+	   streamProviders = new ArrayList<StreamProvider>();
+	   streamProviders.add(bluetoothProvider);
+	   streamProviders.add(tcpProvider);
+	   streamProviders.add(httpProvider);
    }
 
    /**
@@ -124,40 +165,218 @@ public final class TransferDispatcher {
    
    
    /**
-    * Provides the stream by a given DO.
+    * Stores the BO of a given IO in a file. The BO is streamed from the connection into
+    * the file, so its size is not limited by the heap.
     * 
-    * @param dataObj
-    *           The DO.
-    * @return Stream to the underlying BO.
+    * @param myIO
+    *           The IO.
+    * @param file
+    *           The file the BO is stored in.
     * @throws IOException
+    *           If no locator delivered the BO.
     */
-   public byte[] getByteArray(InformationObject myIO) throws IOException {
-      
-	   byte[] resultArray;
-	   String hash    = myIO.getIdentifier().getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
-	   LOG.log(DemoLevel.DEMO, "(TD ) Getting Transfer-Stream from IO: " + myIO);
+   public void getFile(InformationObject myIO, File file) throws IOException {
+
+      Identifier identifier = myIO.getIdentifier();
+      String hash    = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
+      String hashAlg = identifier.getIdentifierLabel(SailDefinedLabelName.HASH_ALG.getLabelName()).getLabelValue();
+      LOG.log(DemoLevel.DEMO, "(TD ) Getting Transfer-Stream from IO: " + myIO);
 
       LOG.info("(TransferDispatcher ) Try to get stream over normal locators");
-      LOG.log(DemoLevel.DEMO, "(TD ) Try to get stream over normal locators");
+      LOG.log(DemoLevel.DEMO, "(TD ) Racing the best " + RACE_WIDTH + " locators");
+      List<String> locators = new ArrayList<String>();
       LocatorSelector locSel = new LocatorSelector(myIO);
       while (locSel.hasNext()) {
-    	  
-         try {       	 
-        	resultArray = this.getByteArray(locSel.next(), hash);
-            if (resultArray!=null)
-            	return resultArray;
-         } catch (NetInfNoStreamProviderFoundException e) {
-            LOG.warn("(TransferDispatcher ) NoStreamProviderFoundException: " + e.getMessage());
-         } catch (IOException e) {
-            LOG.warn("(TransferDispatcher ) IOException: " + e.getMessage());
-         }	  
+         String locator = locSel.next();
+         if (bluetoothMacAddress == null || !locator.contains(bluetoothMacAddress)) {
+            locators.add(locator);
+         }
       }
 
-      throw new IOException("Stream could not be provided");
+      File winner = race(locators, hash, hashAlg, file);
+      peerStats.saveIfDue();
+      if (winner == null) {
+         throw new IOException("Stream could not be provided");
+      }
+      if (file.exists() && !file.delete()) {
+         LOG.warn("(TransferDispatcher ) Could not replace " + file);
+      }
+      if (!winner.renameTo(file)) {
+         deletePart(winner);
+         throw new IOException("Could not move the BO to " + file);
+      }
    }
-   
-   
-   
+
+   /**
+    * Requests the BO from the first RACE_WIDTH locators at the same time. Every transfer
+    * writes into its own part file next to the target file. The first part file that
+    * matches the hash wins, the other transfers are cancelled and their part files
+    * deleted. A failed transfer is replaced by the next locator in priority order.
+    * 
+    * @param locators
+    *           The locators, sorted by priority
+    * @param hash
+    *           The hash of the BO
+    * @param hashAlg
+    *           The hash algorithm of the BO
+    * @param file
+    *           The file the BO will be stored in
+    * @return The verified part file, or null if no locator delivered the BO.
+    */
+   private File race(List<String> locators, String hash, String hashAlg, File file) {
+      CompletionService<File> transfers = new ExecutorCompletionService<File>(transferExecutor);
+      Map<Future<File>, String> running = new HashMap<Future<File>, String>();
+      Iterator<String> pending = locators.iterator();
+      RaceState state = new RaceState();
+      File winner = null;
+
+      try {
+         while (running.size() < RACE_WIDTH && pending.hasNext()) {
+            startTransfer(transfers, running, pending.next(), hash, file, state);
+         }
+
+         while (winner == null && !running.isEmpty()) {
+            Future<File> finished = transfers.take();
+            String locator = running.remove(finished);
+            File part = null;
+            try {
+               part = finished.get();
+            } catch (ExecutionException e) {
+               LOG.warn("(TransferDispatcher ) Transfer from " + locator + " failed: " + e.getCause());
+               peerStats.recordFailure(locator);
+            }
+
+            if (part != null && isVerified(part, hash, hashAlg)) {
+               LOG.log(DemoLevel.DEMO, "(TD ) Won the race: " + locator);
+               peerStats.recordSuccess(locator);
+               winner = part;
+            } else {
+               if (part != null) {
+                  peerStats.recordFailure(locator);
+                  state.remove(part);
+                  deletePart(part);
+               }
+               if (pending.hasNext()) {
+                  startTransfer(transfers, running, pending.next(), hash, file, state);
+               }
+            }
+         }
+      } catch (InterruptedException e) {
+         LOG.warn("(TransferDispatcher ) Interrupted while waiting for a transfer");
+         Thread.currentThread().interrupt();
+      } finally {
+         // The remaining transfers lost the race
+         for (File part : state.decide()) {
+            if (!part.equals(winner)) {
+               deletePart(part);
+            }
+         }
+         for (Future<File> loser : running.keySet()) {
+            loser.cancel(true);
+         }
+      }
+      return winner;
+   }
+
+   /**
+    * Starts a transfer from one locator into a part file as part of a race.
+    */
+   private void startTransfer(CompletionService<File> transfers, Map<Future<File>, String> running,
+         final String locator, final String hash, final File file, final RaceState state) {
+      Future<File> transfer = transfers.submit(new Callable<File>() {
+         @Override
+         public File call() throws Exception {
+            LOG.log(DemoLevel.DEMO, "(TD ) Getting Transfer-Stream from: " + locator);
+            StreamProvider provider = getStreamProvider(locator);
+            File part = File.createTempFile(file.getName() + "-", PART_SUFFIX, file.getAbsoluteFile().getParentFile());
+            FileOutputStream out = new FileOutputStream(part);
+            boolean handedOver = false;
+            try {
+               long start = SystemClock.elapsedRealtime();
+               long size = provider.transfer(locator, hash, out.getChannel());
+               peerStats.recordTransfer(locator, size, SystemClock.elapsedRealtime() - start);
+               // Once the race is over nobody else will delete the part file
+               handedOver = state.handOver(part);
+               return handedOver ? part : null;
+            } finally {
+               out.close();
+               if (!handedOver) {
+                  deletePart(part);
+               }
+            }
+         }
+      });
+      running.put(transfer, locator);
+   }
+
+   /**
+    * Checks that a transferred BO matches its hash. BOs named with other algorithms
+    * than sha-256 are accepted as they are.
+    */
+   private boolean isVerified(File part, String hash, String hashAlg) {
+      if (!SHA_256.equalsIgnoreCase(hashAlg)) {
+         return true;
+      }
+      try {
+         if (HashingSHA256_EncodingBase64URL.encodeFile(part).equals(hash)) {
+            return true;
+         }
+      } catch (IOException e) {
+         LOG.warn("(TransferDispatcher ) Could not read " + part + ": " + e.getMessage());
+         return false;
+      }
+      LOG.warn("(TransferDispatcher ) Transferred data does not match the hash " + hash);
+      return false;
+   }
+
+   /**
+    * Deletes the part file of a transfer that did not win.
+    */
+   private static void deletePart(File part) {
+      if (part.exists() && !part.delete()) {
+         LOG.warn("(TransferDispatcher ) Could not delete " + part);
+      }
+   }
+
+   /**
+    * Keeps track of the part files of finished transfers, so that each part file is
+    * deleted exactly once whether its transfer finishes before or after the race is over.
+    */
+   private static final class RaceState {
+
+      private final Set<File> finished = new HashSet<File>();
+      private boolean decided;
+
+      /**
+       * Hands a complete part file over to the race.
+       * 
+       * @return False if the race is already over and the caller must delete the file.
+       */
+      synchronized boolean handOver(File part) {
+         if (decided) {
+            return false;
+         }
+         finished.add(part);
+         return true;
+      }
+
+      synchronized void remove(File part) {
+         finished.remove(part);
+      }
+
+      /**
+       * Ends the race.
+       * 
+       * @return The part files that were handed over and not yet removed.
+       */
+      synchronized List<File> decide() {
+         decided = true;
+         List<File> leftovers = new ArrayList<File>(finished);
+         finished.clear();
+         return leftovers;
+      }
+   }
+
    /**
     * Provides the appropriate ByteArrayProvider
     * 
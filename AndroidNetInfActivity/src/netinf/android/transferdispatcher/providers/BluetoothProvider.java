@@ -1,18 +1,16 @@
 package netinf.android.transferdispatcher.providers;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.UUID;
 
-import netinf.android.common.communication.protobuf.TransferringMessages.TransferringMessage;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
-public class BluetoothProvider implements ByteArrayProvider {
+public class BluetoothProvider implements ByteArrayProvider, StreamProvider {
 
     // Debugging
     private static final String TAG = "BluetoothStreamProvider";
@@ -26,7 +24,6 @@ public class BluetoothProvider implements ByteArrayProvider {
 	private final static String NIMACBT = "nimacbt://";
 	
 	private BluetoothAdapter mBluetoothAdapter = null;
-	BluetoothSocket mmSocket = null;
 	
 	public BluetoothProvider(){
     	mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -39,67 +36,69 @@ public class BluetoothProvider implements ByteArrayProvider {
 	
 	@Override
 	public byte[] getByteArray(String locator, String hash) {
+		return ChannelCopier.toByteArray(this, locator, hash);
+	}
+
+	@Override
+	public long transfer(String locator, String hash, WritableByteChannel target) throws IOException {
 	    
-	    byte[] data = new byte[3000000];
-	    int connectAttemptsCounter = 0;
-	    
-	    
-	    if(locator.contains(NIMACBT)){
-	    	if(D) Log.d(TAG, " Connection process   - Starting connection process!");
-	    	String mac = getMacAddressFromLocator (locator);
-			BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(mac);
-			
-			BluetoothSocket mmSocket = null;
-			BluetoothSocket tmp      = null;
+	    if(!locator.contains(NIMACBT))
+	    	throw new IOException("Not a Bluetooth locator: " + locator);
 
+    	if(D) Log.d(TAG, " Connection process   - Starting connection process!");
+    	String mac = getMacAddressFromLocator (locator);
+		BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(mac);
+		
+	    // Always cancel discovery because it will slow down a connection
+	    mBluetoothAdapter.cancelDiscovery();
 
+	    // Only connecting is retried, a transfer may already have written to the target
+	    BluetoothSocket mmSocket = connect(device);
+		try {
+	        if(D) Log.d(TAG, " Transferring Process - Starting file transfer");
+	        long size = ChannelCopier.request(mmSocket.getInputStream(), mmSocket.getOutputStream(), hash, target);
+        	if(D) Log.d(TAG, " Transferring Process - File transferring done!");
+        	return size;
+		}
+		finally{
+			try {
+				mmSocket.close();
+			} catch (IOException e2) {
+				Log.e(TAG, "unable to close()  socket after the transfer", e2);
+			}
+		}
+	}
+
+	/**
+	 * Connects to a device, retrying a few times.
+	 */
+	private BluetoothSocket connect(BluetoothDevice device) throws IOException {
+		IOException lastFailure = null;
+
+	    for(int connectAttemptsCounter = 0; connectAttemptsCounter < retryAttempts; connectAttemptsCounter++){
+	    	if(Thread.currentThread().isInterrupted())
+	    		throw new InterruptedIOException("Transfer cancelled");
+
+	    	BluetoothSocket mmSocket = device.createInsecureRfcommSocketToServiceRecord(BO_TRANSFER_UUID);
 		    try {
-		          tmp = device.createInsecureRfcommSocketToServiceRecord(BO_TRANSFER_UUID); 
-		    } catch (IOException e) {
-		        if(D) Log.e(TAG, "create() failed - (createInsecureRfcommSocketToServiceRecord) ", e);
+		        // This is a blocking call and will only return on a
+		        // successful connection or an exception
+		        mmSocket.connect();
+		        if(D) Log.d(TAG, " Connection process   - Connection established - Socket connected");
+		        return mmSocket;
 		    }
-		    mmSocket = tmp;
-		    
-		    // Always cancel discovery because it will slow down a connection
-		    mBluetoothAdapter.cancelDiscovery();
-			
-		    while(connectAttemptsCounter < retryAttempts){
-			 
-		    	connectAttemptsCounter++;
-		    	// Make a connection to the BluetoothSocket
-			    try {
-			        // This is a blocking call and will only return on a
-			        // successful connection or an exception
-			    		
-				        mmSocket.connect();
-				        if(D) Log.d(TAG, " Connection process   - Connection established - Socket connected");
-				        if(D) Log.d(TAG, " Transferring Process - Starting file transfer");
-				        data = getByteArrayFromRemotePeer(mmSocket,hash);
-				        if(data!=null){
-				        	if(D) Log.d(TAG, " Transferring Process - File transferring done!");
-				        	return data;
-				        }
-			        
-			    }
-			      catch (IOException e) {
-			    	  if(D) Log.e(TAG, "failure while connecting to the socket - (createInsecureRfcommSocketToServiceRecord) ", e);
-			    }
-		       finally{	    	   
-	    	           try {
-	    	              if(mmSocket.isConnected()){
-	    	            	  mmSocket.close();
-	    	              }
-	    	           } catch (IOException e2) {
-	    	               Log.e(TAG, "unable to close()  socket during connection failure", e2);
-	    	           }
-		    	           
-		    	 }		
+		    catch (IOException e) {
+		    	if(D) Log.e(TAG, "failure while connecting to the socket - (createInsecureRfcommSocketToServiceRecord) ", e);
+		    	lastFailure = e;
+		    	try {
+		    		mmSocket.close();
+		    	} catch (IOException e2) {
+		    		Log.e(TAG, "unable to close()  socket during connection failure", e2);
+		    	}
 		    }
-		  return null;
-		}
-		return null;
+	    }
+	    throw lastFailure;
 	}
-	
 
 	@Override
 	public boolean canHandle(String url) {
@@ -111,8 +110,7 @@ public class BluetoothProvider implements ByteArrayProvider {
 
 	@Override
 	public String describe() {
-		// TODO Auto-generated method stub
-		return null;
+		return "Bluetooth provider";
 	}
 	
 	
@@ -123,101 +121,4 @@ public class BluetoothProvider implements ByteArrayProvider {
 		return macAddress;
 		
 	}
-	
-	private byte[] getByteArrayFromRemotePeer(BluetoothSocket mmSocket, String hash){
-		
-		byte[] buffer = new byte[8192];
-	    byte[] data = new byte[3000000];
-	    ByteArrayOutputStream byteBuffer  = new ByteArrayOutputStream();
-		
-	    DataInputStream           dataIn = null;
-	    DataOutputStream         dataOut = null;
-	    
-	 
-	    try {
-	   	
-		    dataIn = new DataInputStream(mmSocket.getInputStream());
-		    dataOut = new DataOutputStream(mmSocket.getOutputStream());
-	    	
-   		    //Send
-   		    
-   		    TransferringMessage myMessage = TransferringMessage.newBuilder()
-   		    								.setCode(TransferringMessage.RequestCode.REQUEST)
-   		    								.setData(hash)
-   		    								.build();
-		   		    
-		   		    
-   		    byte[] testSendBuffer = myMessage.toByteArray();
-   		    
-   		    dataOut.writeInt(testSendBuffer.length);
-   		    dataOut.write(testSendBuffer);
-   		    
-   			int controlMessageSize =  dataIn.readInt();
-   			byte[] controlMessage = new byte[controlMessageSize];
-   			dataIn.readFully(controlMessage);
-   					   			
-   			TransferringMessage myReplyMessage = TransferringMessage.parseFrom(controlMessage);
-   		    if(myReplyMessage.getCode()==TransferringMessage.RequestCode.REPLY_OK){
-   		    	
-   		    	
-   		    	long payloadSize = dataIn.readLong();		   					   			
-							 	   												     	            
-				int len=0;
-				while(len<payloadSize){
-					len = dataIn.read(buffer);
-				    byteBuffer.write(buffer, 0, len);
-				    len = byteBuffer.size();
-				    System.out.print(len);
-				}
-				
-				
-				data = byteBuffer.toByteArray();
-				len = data.length;
-   		    	
-   		    	return data;
-   		    }
-	        
-	    }
-	      catch (IOException e) {
-	    	  if(D) Log.e(TAG, "failure while connecting to the socket - (createInsecureRfcommSocketToServiceRecord) ", e);
-	    }
-       finally{	    	   
-    
-               if(dataIn != null){
-                   try {
-                	   dataIn.close();
-                   } catch (IOException e) {
-                       // TODO Auto-generated catch block
-                       e.printStackTrace();
-                   }
-               }
-               if(dataOut != null){
-                   try {
-                	   dataIn.close();
-                   } catch (IOException e) {
-                       // TODO Auto-generated catch block
-                       e.printStackTrace();
-                   }
-               }
-                   
-                   if(byteBuffer != null){
-                       try {
-                    	  byteBuffer.close();
-                       } catch (IOException e) {
-                           // TODO Auto-generated catch block
-                           e.printStackTrace();
-                       }
-                   }
-	           try {
-	               mmSocket.close();
-	           } catch (IOException e2) {
-	               Log.e(TAG, "unable to close()  socket during connection failure", e2);
-	           }
-    	           
-    	 }	    		
-		 return null;
-	}
-
-
-	
 }
@@ -0,0 +1,123 @@
+package netinf.android.transferdispatcher.providers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import netinf.android.common.communication.protobuf.TransferringMessages.TransferringMessage;
+
+/**
+ * Copies received BOs into channels through a small buffer, checking between reads
+ * whether the transfer was cancelled.
+ */
+final class ChannelCopier {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private ChannelCopier() {
+	}
+
+	/**
+	 * Requests a BO from a connected peer and copies the reply into a channel, using the
+	 * TransferringMessage protocol spoken over Bluetooth and TCP.
+	 * 
+	 * @param in
+	 *           The stream the peer replies on
+	 * @param out
+	 *           The stream to send the request on
+	 * @param hash
+	 *           The hash of the requested BO
+	 * @param target
+	 *           The channel to write the BO to
+	 * @return The number of bytes copied.
+	 * @throws IOException
+	 *           If the peer does not have the BO or the transfer failed
+	 */
+	static long request(InputStream in, OutputStream out, String hash, WritableByteChannel target) throws IOException {
+	    DataInputStream           dataIn = new DataInputStream(in);
+	    DataOutputStream         dataOut = new DataOutputStream(out);
+	    
+	    //Send
+	    TransferringMessage myMessage = TransferringMessage.newBuilder()
+	    								.setCode(TransferringMessage.RequestCode.REQUEST)
+	    								.setData(hash)
+	    								.build();
+	    
+	    byte[] testSendBuffer = myMessage.toByteArray();
+	    
+	    dataOut.writeInt(testSendBuffer.length);
+	    dataOut.write(testSendBuffer);
+	    
+		int controlMessageSize =  dataIn.readInt();
+		byte[] controlMessage = new byte[controlMessageSize];
+		dataIn.readFully(controlMessage);
+				   			
+		TransferringMessage myReplyMessage = TransferringMessage.parseFrom(controlMessage);
+	    if(myReplyMessage.getCode()!=TransferringMessage.RequestCode.REPLY_OK)
+	    	throw new IOException("TransferringMessage response code from the server was different than OK - Code=" + myReplyMessage.getCode() + "Data=" + myReplyMessage.getData());
+
+	    long payloadSize = dataIn.readLong();
+	    return copy(dataIn, target, payloadSize);
+	}
+
+	/**
+	 * Copies bytes from a stream into a channel.
+	 * 
+	 * @param in
+	 *           The stream to read from
+	 * @param target
+	 *           The channel to write to
+	 * @param size
+	 *           The number of bytes to copy, or -1 to copy until the end of the stream
+	 * @return The number of bytes copied.
+	 * @throws IOException
+	 *           If reading or writing failed, the stream ended early or the thread was interrupted
+	 */
+	static long copy(InputStream in, WritableByteChannel target, long size) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long copied = 0;
+
+		while (size < 0 || copied < size) {
+			// Stop when another locator won the race
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("Transfer cancelled");
+
+			int wanted = size < 0 ? buffer.length : (int) Math.min(buffer.length, size - copied);
+			int len = in.read(buffer, 0, wanted);
+			if (len < 0) {
+				if (size < 0)
+					break;
+				throw new EOFException("Connection closed before the whole file was received");
+			}
+
+			ByteBuffer received = ByteBuffer.wrap(buffer, 0, len);
+			while (received.hasRemaining())
+				target.write(received);
+			copied += len;
+		}
+		return copied;
+	}
+
+	/**
+	 * Runs a transfer into memory, for callers that still want the BO as a byte array.
+	 * 
+	 * @return The BO, or null if the transfer failed.
+	 */
+	static byte[] toByteArray(StreamProvider provider, String locator, String hash) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			provider.transfer(locator, hash, Channels.newChannel(out));
+			return out.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -1,16 +1,16 @@
 package netinf.android.transferdispatcher.providers;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.WritableByteChannel;
 import java.util.Random;
 
 import netinf.android.AndroidNetInfActivity;
+import netinf.android.common.communication.SharedHttpClient;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -21,13 +21,12 @@ import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
 
 import android.os.Environment;
 import android.util.Log;
 
 
-public class HttpProvider implements ByteArrayProvider {
+public class HttpProvider implements ByteArrayProvider, StreamProvider {
 
     // Debugging
     private static final String TAG = "HttpProvider";
@@ -37,12 +36,8 @@ public class HttpProvider implements ByteArrayProvider {
 	private final static String NIHTTP = "nihttp://";
 	private static String NCS_SERVER;
 	   
-    HttpClient client = new DefaultHttpClient();
-	HttpResponse response;
-	int resp_code=0;
+    HttpClient client = SharedHttpClient.getInstance();
 	
-	static MultipartEntity reqEntity = new MultipartEntity();
-	static HttpPost post;
 	static Random randomGenerator = new Random();
 		
 	public HttpProvider(){
@@ -54,80 +49,49 @@ public class HttpProvider implements ByteArrayProvider {
 	
 	@Override
 	public byte[] getByteArray(String locator, String hash) {
+		return ChannelCopier.toByteArray(this, locator, hash);
+	}
+
+	@Override
+	public long transfer(String locator, String hash, WritableByteChannel target) throws IOException {
 		
 		String niname = "ni:///sha-256;" + hash;
-		String c_type;
-		byte[] data = new byte[300000];
+		HttpPost post = createget(NCS_SERVER, niname);
+		HttpResponse response = null;
+		boolean complete = false;
 		
 		try {
-			
 			if(D) Log.d(TAG, "Creating get request for niname = " + niname);
-			if (createget(NCS_SERVER, niname)) {
-							
-				response = client.execute(post);
-				resp_code = response.getStatusLine().getStatusCode();	
-				if(D) Log.d(TAG, "response code received from the NCS = " + resp_code );
-											
-				if (200 == resp_code) {
-					// Get content type
-					c_type = response.getEntity().getContentType().getValue();
-					
-					if ("application/octet-stream".equalsIgnoreCase(c_type)) {
-						// Response is content
-						InputStream content = response.getEntity().getContent();
-
-						
-						ByteArrayOutputStream out = null;
-						try {
-							
-					        out = new ByteArrayOutputStream();
-					        
-					        // Copy the bits from instream to outstream
-					        byte[] buf = new byte[1024];
-					        int len;
-					        while ((len = content.read(buf)) > 0) {
-					            out.write(buf, 0, len);
-					        }
-					        
-					        if(D) Log.d(TAG, "Amount of bytes received from the NCS = " + len );
-					        data = out.toByteArray();
-					        content	.close();
-					        out.close();
-					        
-					        return data;
-					        
-						} catch (FileNotFoundException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (IOException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-						
-						if(D) Log.d(TAG, "The requested IO was not found in the database.");
-					} 
-					else {
-						// Response codetype is not success (we expected that)
-						System.err.println("Wrong ctype - The ctype value is not application/json");
-					}
-				} else {
-					// Response codetype is not success (we expected that)
-					System.err.println("RESP_CODE: "+Integer.toString(resp_code));
-				}	
-		} else {
-			System.err.println("Command parse failed!");
-		}
-		
-		} catch (IOException e) {
-			e.printStackTrace();
+			response = client.execute(post);
+			int resp_code = response.getStatusLine().getStatusCode();	
+			if(D) Log.d(TAG, "response code received from the NCS = " + resp_code );
+										
+			if (200 != resp_code)
+				throw new IOException("RESP_CODE: "+Integer.toString(resp_code));
+
+			// Get content type
+			String c_type = response.getEntity().getContentType().getValue();
+			if (!"application/octet-stream".equalsIgnoreCase(c_type))
+				throw new IOException("Wrong ctype - The ctype value is not application/octet-stream");
+
+			// Response is content, copy it as it arrives
+			InputStream content = response.getEntity().getContent();
+			long len = ChannelCopier.copy(content, target, -1);
+			complete = true;
+			if(D) Log.d(TAG, "Amount of bytes received from the NCS = " + len );
+			return len;
+		} finally {
+			// Closing or consuming the body would read the rest of it, so a
+			// cancelled or failed transfer drops its connection instead
+			if (complete) {
+				SharedHttpClient.consume(response);
+			} else {
+				post.abort();
+			}
 		}
-		
-		return null;
 	}
 	
 
-	
-	
 	@Override
 	public boolean canHandle(String url) {
 	      if (url.startsWith(NIHTTP)) {
@@ -138,19 +102,17 @@ public class HttpProvider implements ByteArrayProvider {
 
 	@Override
 	public String describe() {
-		// TODO Auto-generated method stub
-		return null;
+		return "HTTP provider";
 	}
 	
 	public boolean cacheContent(String hashAlg, String hashCont){
 		
 		
 		 boolean success = false;          		                		   
-         HttpResponse response;    		
+         HttpResponse response = null;    		
  		 Random randomGenerator = new Random();    		    	
 
  				
- 		 HttpClient client = new DefaultHttpClient();
  		 HttpPost post = new HttpPost(NCS_SERVER+ "/.well-known/netinfproto/publish");
  		    		
 			try {
@@ -188,6 +150,8 @@ public class HttpProvider implements ByteArrayProvider {
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
+			} finally {
+				SharedHttpClient.consume(response);
 			}    
 		 
 		 
@@ -197,9 +161,9 @@ public class HttpProvider implements ByteArrayProvider {
 		
 	}
 	
-	boolean createget(String dst, String name)  {
+	HttpPost createget(String dst, String name)  {
 		
-		post = new HttpPost(dst+"/.well-known/netinfproto/get"); 
+		HttpPost post = new HttpPost(dst+"/.well-known/netinfproto/get"); 
 		
 		String msgid = Integer.toString(randomGenerator.nextInt(100000000));
 		String ext = "no extension";
@@ -218,7 +182,7 @@ public class HttpProvider implements ByteArrayProvider {
 		
 		post.addHeader("Content-Type","application/x-www-form-urlencoded");
 		post.setEntity(newEntity);
-		return true;
+		return post;
 	}
 	
 	public static InputStream fromString(String str)
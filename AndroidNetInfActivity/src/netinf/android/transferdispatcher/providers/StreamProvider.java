@@ -0,0 +1,43 @@
+package netinf.android.transferdispatcher.providers;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Interface for all providers that stream a BO into a channel while it is received,
+ * so that BOs of any size go from the connection to storage with bounded memory.
+ */
+public interface StreamProvider {
+
+   /**
+    * Given a locator and a file hash, this method writes the BO corresponding to the hash
+    * into a channel. The channel is not closed.
+    * 
+    * @param locator
+    *           The locator from where the file should be fetched
+    * @param hash
+    *           The hash of the file that will be fetched
+    * @param target
+    *           The channel the file is written to, e.g. the channel of a file
+    * @return The number of bytes written.
+    * @throws IOException
+    *           If the transfer failed or was cancelled
+    */
+   long transfer(String locator, String hash, WritableByteChannel target) throws IOException;
+
+   /**
+    * Decides whether this locator can be handled or not.
+    * 
+    * @param locator
+    *           The URL of the file.
+    * @return True if the Provider can handle this URL, otherwise false.
+    */
+   boolean canHandle(String locator);
+
+   /**
+    * Describes the Stream Provider.
+    * 
+    * @return The name of the Stream Provider.
+    */
+   String describe();
+}
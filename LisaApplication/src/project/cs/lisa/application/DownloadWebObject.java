@@ -1,7 +1,10 @@
 package project.cs.lisa.application;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 
 import org.apache.commons.io.FileUtils;
@@ -10,7 +13,7 @@ import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 
-import project.cs.lisa.hash.Hash;
+import project.cs.lisa.hash.ContentHasher;
 import project.cs.lisa.util.UProperties;
 import android.content.Context;
 import android.net.ConnectivityManager;
@@ -24,6 +27,9 @@ public class DownloadWebObject extends AsyncTask<URL, Void, WebObject>{
     /** Debugging tag. */
     private static final String TAG = "DownloadWebObject";
 
+    /** Prefix of the temporary file a web object is written to before it is named. */
+    private static final String TEMP_PREFIX = ".download-";
+
     /** The directory containing the published files. */
     private String mSharedFolder;
 
@@ -89,32 +95,57 @@ public class DownloadWebObject extends AsyncTask<URL, Void, WebObject>{
 
         String contentType = representation.getMediaType().toString();
 
-        // Create file and hash
-        byte[] bytes = IOUtils.toByteArray(representation.getStream());
+        // Write the page to a temporary file and hash it on the way
+        File sharedFolder = new File(mSharedFolder);
+        FileUtils.forceMkdir(sharedFolder);
+        File tempFile = File.createTempFile(TEMP_PREFIX, null, sharedFolder);
+
+        String hash = null;
+        try {
+            hash = saveAndHash(representation.getStream(), tempFile);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tempFile);
+            throw e;
+        }
 
-        String hash = hashContent(bytes);
+        // Name the file after its content
         File file = new File(mSharedFolder + hash);
-        FileUtils.writeByteArrayToFile(file, bytes);
+        if (file.exists()) {
+            Log.d(TAG, "Web object already stored as " + file.getName());
+            FileUtils.deleteQuietly(tempFile);
+        } else {
+            FileUtils.moveFile(tempFile, file);
+        }
 
         WebObject webObject = new WebObject(contentType, file, hash);
         return webObject;
     }
 
     /**
-     * Hashes data.
-     * @param bytes
-     *      The data
+     * Copies a stream into a file while hashing the copied data, so only
+     * one small buffer of the content is held in memory at a time.
+     * @param in
+     *      The stream to copy, it is closed when done
+     * @param file
+     *      The file to write to
      * @return
-     *      The hash
+     *      The hash of the copied data
+     * @throws IOException
+     *      In case reading the stream or writing the file failed
      */
-    private String hashContent(byte[] bytes) {
-        Hash hash = null;
-        String result = null;
+    private String saveAndHash(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        String hash = null;
 
-        hash = new Hash(bytes);
-        Log.d(TAG, "The generated hash is: " + hash.encodeResult());
-        result = hash.encodeResult(); // Use 0 for using the whole hash
+        try {
+            hash = ContentHasher.INSTANCE.hash(in, out);
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+        }
 
-        return result;
+        Log.d(TAG, "The generated hash is: " + hash);
+        return hash;
     }
 }
@@ -17,6 +17,7 @@ import project.cs.lisa.application.http.NetInfRetrieve;
 import project.cs.lisa.application.http.NetInfSearch;
 import project.cs.lisa.metadata.Metadata;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import project.cs.lisa.transferdispatcher.ChunkManifest;
 import project.cs.lisa.util.UProperties;
 import android.bluetooth.BluetoothAdapter;
 import android.os.AsyncTask;
@@ -37,6 +38,9 @@ public class FetchWebPageTask extends AsyncTask<URL, Void, Void> {
     /** Debugging tag. */
     private static final String TAG = "FetchWebPageTask";
 
+    /** The chunk size to use if none is configured. */
+    private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
     /** The directory containing the published files. */
     private String mSharedFolder;
 
@@ -240,6 +244,14 @@ public class FetchWebPageTask extends AsyncTask<URL, Void, Void> {
         metadata.insert("time", Long.toString(System.currentTimeMillis()));
         metadata.insert("url", url.toString());
 
+        // Large files get a chunk manifest, so they can be fetched from several devices
+        int chunkSize = UProperties.INSTANCE.getIntPropertyWithName(
+                "transfer.chunk.size", DEFAULT_CHUNK_SIZE);
+        if (file.length() > chunkSize) {
+            metadata.insert(ChunkManifest.METADATA_KEY,
+                    ChunkManifest.create(file, chunkSize).encode());
+        }
+
         Log.d(TAG, "Trying to publish a new file.");
 
         // Try to get the Bluetooth MAC
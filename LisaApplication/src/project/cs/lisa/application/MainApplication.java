@@ -26,7 +26,9 @@
  */
 package project.cs.lisa.application;
 
+import project.cs.lisa.bluetooth.BluetoothDiscovery;
 import project.cs.lisa.netinf.node.module.Module;
+import project.cs.lisa.netinf.node.resolution.LocatorCache;
 import android.app.Application;
 import android.content.Context;
 import android.util.Log;
@@ -68,6 +70,22 @@ public class MainApplication extends Application {
         mInjector = Guice.createInjector(new Module());
         
         mStaticInjector = mInjector;
+
+        // Keep the table of Bluetooth neighbors up to date from the start
+        BluetoothDiscovery.INSTANCE.start();
+    }
+
+    /**
+     * Drops the cached NRS locators, which can be fetched again, when the
+     * system is low on memory.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        Log.d(TAG, "onLowMemory()");
+        if (mInjector != null) {
+            mInjector.getInstance(LocatorCache.class).clear();
+        }
     }
 
     /**
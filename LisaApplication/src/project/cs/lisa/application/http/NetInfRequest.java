@@ -9,16 +9,14 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONValue;
 import org.json.simple.parser.ParseException;
 
+import project.cs.lisa.application.MainApplication;
 import project.cs.lisa.application.MainNetInfActivity;
 import project.cs.lisa.exceptions.NullEntityException;
+import project.cs.lisa.util.HttpClientFactory;
 import android.os.AsyncTask;
 import android.util.Log;
 
@@ -58,7 +56,7 @@ public abstract class NetInfRequest extends AsyncTask<Void, Void, String> {
     /** The rest of the URI. **/
     private HashMap<String, String> mQueryVariables = new HashMap<String, String>();
 
-    /** HTTP Client. **/
+    /** HTTP Client, shared with the rest of the application. **/
     private HttpClient mClient;
 
     /** Activity **/
@@ -84,11 +82,8 @@ public abstract class NetInfRequest extends AsyncTask<Void, Void, String> {
         addQuery("hashAlg", hashAlg);
         addQuery("hash", hash);
 
-        // HTTP client with a timeout
-        HttpParams httpParams = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(httpParams, TIMEOUT);
-        HttpConnectionParams.setSoTimeout(httpParams, TIMEOUT);
-        mClient = new DefaultHttpClient(httpParams);
+        // Pooled HTTP client, the timeout is set per request
+        mClient = MainApplication.getStaticInjector().getInstance(HttpClient.class);
     }
 
     public NetInfRequest(MainNetInfActivity activity, String host, String port) {
@@ -98,11 +93,8 @@ public abstract class NetInfRequest extends AsyncTask<Void, Void, String> {
         mPort = port;
         mPathPrefix = "";
 
-        // HTTP client with a timeout
-        HttpParams httpParams = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(httpParams, TIMEOUT);
-        HttpConnectionParams.setSoTimeout(httpParams, TIMEOUT);
-        mClient = new DefaultHttpClient(httpParams);
+        // Pooled HTTP client, the timeout is set per request
+        mClient = MainApplication.getStaticInjector().getInstance(HttpClient.class);
     }
 
     /**
@@ -130,6 +122,7 @@ public abstract class NetInfRequest extends AsyncTask<Void, Void, String> {
         // TODO improve, maybe throw more exceptions instead of all try:s?
 
         // Execute the HTTP request
+        HttpClientFactory.setTimeout(request, TIMEOUT);
         HttpResponse response = mClient.execute(request);
 
         // Get entity
@@ -140,7 +133,13 @@ public abstract class NetInfRequest extends AsyncTask<Void, Void, String> {
             throw new NullEntityException();
         }
 
-        String jsonResponse = EntityUtils.toString(entity);
+        String jsonResponse;
+        try {
+            jsonResponse = EntityUtils.toString(entity);
+        } finally {
+            // Give the connection back to the pool
+            HttpClientFactory.consume(response);
+        }
         Log.d(TAG, "jsonResponse = " + jsonResponse);
 
         // TODO validate that actual JSON is returned.
@@ -26,20 +26,37 @@
  */
 package project.cs.lisa.bluetooth;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import project.cs.lisa.application.MainApplication;
+import project.cs.lisa.bluetooth.NeighborTable.Neighbor;
+import project.cs.lisa.util.UProperties;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
- * Singleton for performing a Bluetooth discovery task.
+ * Singleton that keeps a table of the Bluetooth devices in range.
+ *
+ * Discoveries run in the background on a schedule, and every device found
+ * is recorded with its signal strength. Looking up the available devices
+ * does not scan, it reads the table; only a lookup before the first
+ * discovery finished waits for it, since the table is empty until then.
+ *
+ * An inquiry slows down the RFCOMM links that are open at the same time,
+ * so discoveries are postponed while links are open, for as long as the
+ * devices found by the last discovery have not expired.
  * 
  * @author Paolo Boschini
  * @author Kim-Anh Tran
@@ -49,12 +66,21 @@ public enum BluetoothDiscovery {
     /** The unique reference for this singleton. */ 
     INSTANCE;
 
-    /** The constant timeout for the Bluetooth discovery task. */
+    /** The longest time a lookup waits for the first discovery to finish. */
     private static final int TIMEOUT = 10000;
 
     /** The Debug TAG for this Activity. */
     private static final String TAG = "BluetoothDiscovery";
 
+    /** Milliseconds per second. */
+    private static final long MILLIS = 1000;
+
+    /** Seconds between discoveries when none is configured. */
+    private static final int DEFAULT_INTERVAL = 60;
+
+    /** Seconds a device is kept after it was last seen when nothing is configured. */
+    private static final int DEFAULT_TTL = 180;
+
     /** The Bluetooth adapter. */
     private BluetoothAdapter mBluetoothAdapter;
 
@@ -64,58 +90,229 @@ public enum BluetoothDiscovery {
     /** The filter for choosing what actions the broadcast receiver will catch. */
     private IntentFilter mIntentFilter;
 
-    /** The list that contains the discovered bluetooth devices. */
-    private ArrayList<String> mAvailableDevices;
+    /** The devices that were seen recently. */
+    private NeighborTable mNeighbors;
+
+    /** Are told when Bluetooth is turned off. */
+    private final List<OffListener> mOffListeners = new CopyOnWriteArrayList<OffListener>();
+
+    /** Runs the scheduled discoveries. */
+    private ScheduledExecutorService mScheduler;
+
+    /** Milliseconds after which the table is stale if no discovery finished. */
+    private long mInterval;
+
+    /** Milliseconds after which a discovery runs even while links are open. */
+    private long mMaxPostpone;
+
+    /** The number of RFCOMM links that are open. */
+    private final AtomicInteger mOpenLinks = new AtomicInteger();
+
+    /** Guards the state of the discoveries below. */
+    private final Object mLock = new Object();
+
+    /** When the last complete discovery finished, or 0 if none has finished yet. */
+    private long mLastDiscovery;
+
+    /** Whether a discovery started by this class is running. */
+    private boolean mDiscovering;
+
+    /** Whether the running discovery was cancelled to connect to a device. */
+    private boolean mCancelled;
+
+    /** Whether the scheduled discoveries have been started. */
+    private boolean mStarted;
 
     /**
      * Initiates the singleton.
      */
     private BluetoothDiscovery() {
+        mInterval = UProperties.INSTANCE.getIntPropertyWithName(
+                "bluetooth.discovery.interval", DEFAULT_INTERVAL) * MILLIS;
+        long ttl = UProperties.INSTANCE.getIntPropertyWithName(
+                "bluetooth.neighbor.ttl", DEFAULT_TTL) * MILLIS;
+        mMaxPostpone = Math.max(mInterval, ttl - mInterval);
+        mNeighbors = new NeighborTable(ttl);
+        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
         // Setup a broadcast receiver for being notified when a new device was found
         setUpBroadcastReceiver();
         mIntentFilter = new IntentFilter();
         mIntentFilter.addAction(BluetoothDevice.ACTION_FOUND);
+        mIntentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        mIntentFilter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         MainApplication.getAppContext().registerReceiver(mBroadcastReceiver, mIntentFilter);
 
-        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BluetoothDiscovery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
-     * Returns a list of available Bluetooth devices.
-     * It performs a discovery within a fixed timeout of TIMEOUT seconds.
-     * Why? Well, because there is no sense
-     * trying to discover Bluetooth devices for a longer time.
-     * 
-     * @return  The list of available devices represented by MAC:addresses.
+     * Starts the scheduled discoveries, so that the table is filled before
+     * the first lookup. Calling it again has no effect.
      */
-    public synchronized List<String> startBluetoothDiscovery() {
-    	Log.d(TAG, "Start bluetooth discovery.");
-    	
-        // Initiate a new list every time we start a discovery 
-        mAvailableDevices = new ArrayList<String>();
+    public void start() {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+        }
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshIfStale();
+            }
+        }, 0, mInterval, TimeUnit.MILLISECONDS);
+    }
 
-        mBluetoothAdapter.startDiscovery();
+    /**
+     * Registers a listener that is told when Bluetooth is turned off, e.g.
+     * to close connections that cannot be used any more.
+     *
+     * @param listener  The listener
+     */
+    public void addOffListener(OffListener listener) {
+        mOffListeners.add(listener);
+    }
+
+    /**
+     * Records that an RFCOMM link was opened. Discoveries wait while links are open.
+     */
+    public void linkOpened() {
+        mOpenLinks.incrementAndGet();
+    }
 
-        // Wait for the discover to finish within n seconds 
-        try {
-            Thread.sleep(TIMEOUT);
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Timeout sleep was interrupted.");
+    /**
+     * Records that an RFCOMM link was closed. A postponed discovery runs
+     * once the last link is closed.
+     */
+    public void linkClosed() {
+        if (mOpenLinks.decrementAndGet() == 0 && isStale()) {
+            mScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshIfStale();
+                }
+            });
         }
+    }
 
-        // Discovery done, cancel it
+    /**
+     * Cancels a running discovery before connecting to a device. The
+     * discovery does not count as finished, so it is run again later.
+     */
+    public void cancelDiscovery() {
+        if (mBluetoothAdapter == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mDiscovering) {
+                mCancelled = true;
+            }
+        }
         mBluetoothAdapter.cancelDiscovery();
-        
-        Log.d(TAG, "Bluetooth discovery is finished.");
+    }
+
+    /**
+     * Returns the Bluetooth devices that were seen recently. This is a
+     * lookup in the neighbor table; only if no discovery has finished yet
+     * it waits for the running one, for at most TIMEOUT milliseconds.
+     * 
+     * @return  The list of available devices represented by MAC:addresses.
+     */
+    public List<String> getAvailableDevices() {
+        synchronized (mLock) {
+            if (mLastDiscovery == 0 && isEnabled()) {
+                Log.d(TAG, "Waiting for the first bluetooth discovery.");
+                refreshIfStale();
+                long deadline = SystemClock.elapsedRealtime() + TIMEOUT;
+                long remaining = TIMEOUT;
+                try {
+                    while (mLastDiscovery == 0 && mDiscovering && remaining > 0) {
+                        mLock.wait(remaining);
+                        remaining = deadline - SystemClock.elapsedRealtime();
+                    }
+                } catch (InterruptedException e) {
+                    Log.e(TAG, "Waiting for the discovery was interrupted.");
+                    Thread.currentThread().interrupt();
+                }
+            } else if (isStale()) {
+                // Serve what is known and refresh in the background
+                mScheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshIfStale();
+                    }
+                });
+            }
+        }
+        return mNeighbors.getAddresses();
+    }
+
+    /**
+     * Returns what is known about a device that was seen recently.
+     *
+     * @param address   The MAC address of the device
+     * @return The neighbor, or null if the device was not seen recently
+     */
+    public Neighbor getNeighbor(String address) {
+        return mNeighbors.get(address);
+    }
 
-        return mAvailableDevices;
+    /**
+     * Starts a discovery unless one is running, the table is fresh, or
+     * links are open and the discovery can still be postponed.
+     */
+    private void refreshIfStale() {
+        synchronized (mLock) {
+            if (!isEnabled() || mBluetoothAdapter.isDiscovering() || !isStale()) {
+                return;
+            }
+            if (mOpenLinks.get() > 0 && mLastDiscovery != 0
+                    && SystemClock.elapsedRealtime() - mLastDiscovery < mMaxPostpone) {
+                Log.d(TAG, "Postponing bluetooth discovery, " + mOpenLinks.get() + " links open.");
+                return;
+            }
+            Log.d(TAG, "Start bluetooth discovery.");
+            mCancelled = false;
+            mDiscovering = mBluetoothAdapter.startDiscovery();
+            if (!mDiscovering) {
+                Log.w(TAG, "Bluetooth discovery could not be started.");
+            }
+        }
     }
 
+    /**
+     * Checks whether the last discovery finished too long ago.
+     *
+     * @return True if a discovery should be run
+     */
+    private boolean isStale() {
+        synchronized (mLock) {
+            return mLastDiscovery == 0
+                    || SystemClock.elapsedRealtime() - mLastDiscovery >= mInterval;
+        }
+    }
+
+    /**
+     * Checks whether Bluetooth can be used.
+     *
+     * @return True if there is an enabled Bluetooth adapter
+     */
+    private boolean isEnabled() {
+        return mBluetoothAdapter != null && mBluetoothAdapter.isEnabled();
+    }
 
     /**
      * Determines which actions are to be intercepted from android services,
-     * for now intercept only Bluetooth discovery.
+     * for now intercept only Bluetooth discovery and Bluetooth being turned off.
      */
     private void setUpBroadcastReceiver() {
     	Log.d(TAG, "Set up broadcast receiver.");
@@ -132,13 +329,51 @@ public enum BluetoothDiscovery {
                             .getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
 
                     // This checks the Bluetooth signal strength of the surrounding devices
-                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,
+                            Neighbor.UNKNOWN_RSSI);
                     Log.d(TAG, device.getName() + ", " + device.getAddress() + ", " + rssi + " dB");
                     
-                    // Updates the list of available devices
-                    mAvailableDevices.add(device.getAddress());            
+                    // Updates the table of available devices
+                    mNeighbors.update(device.getAddress(), rssi);
+
+                } else if (action.equals(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)) {
+                    synchronized (mLock) {
+                        // Only a complete discovery of our own makes the table fresh
+                        if (mDiscovering && !mCancelled) {
+                            Log.d(TAG, "Bluetooth discovery is finished.");
+                            mLastDiscovery = SystemClock.elapsedRealtime();
+                        } else {
+                            Log.d(TAG, "Bluetooth discovery was cut short.");
+                        }
+                        mDiscovering = false;
+                        mCancelled = false;
+                        mLock.notifyAll();
+                    }
+
+                } else if (action.equals(BluetoothAdapter.ACTION_STATE_CHANGED)
+                        && intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR)
+                        != BluetoothAdapter.STATE_ON) {
+                    // Nobody is in range of a radio that is off
+                    mNeighbors.clear();
+                    synchronized (mLock) {
+                        mLastDiscovery = 0;
+                        mDiscovering = false;
+                        mLock.notifyAll();
+                    }
+                    for (OffListener listener : mOffListeners) {
+                        listener.onBluetoothOff();
+                    }
                 }
             }
         };
     }
-}
\ No newline at end of file
+
+    /** Is told when Bluetooth is turned off. */
+    public interface OffListener {
+
+        /**
+         * Called when Bluetooth is turned off or is about to be.
+         */
+        void onBluetoothOff();
+    }
+}
@@ -26,14 +26,29 @@
  */
 package project.cs.lisa.bluetooth;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
 
 import project.cs.lisa.util.UProperties;
 import android.bluetooth.BluetoothAdapter;
@@ -45,10 +60,17 @@ import android.util.Log;
 /**
  * The BluetoothServer listens for incoming Bluetooth pairing
  * requests. As soon as the local device has been successfully paired
- * with a remote device, the BluetoothServer waits for a file request
+ * with a remote device, the BluetoothServer waits for file requests
  * containing the hash. If the specified file is existing, the file will
  * be transferred to the remote device.
  *
+ * A remote device may send many requests over one connection. The
+ * connections are served by a fixed number of workers, so several
+ * devices are served at once. When all workers are busy, a connection
+ * that is idle between requests is closed to make room, and otherwise
+ * no further connection is accepted until a worker is free. A single
+ * device may only hold a few connections, so it cannot take all workers.
+ *
  * @author Kim-Anh Tran
  *
  */
@@ -66,9 +88,36 @@ public class BluetoothServer extends Thread {
 	/** The buffer for reading in the hash out of a file request message. */
 	private static final int BUFFER_SIZE = 1024;
 
+	/**
+	 * Separates the hash, offset and length of a range request. See
+	 * {@link project.cs.lisa.bluetooth.provider.BluetoothProvider#RANGE_SEPARATOR} */
+	private static final String RANGE_SEPARATOR = ";";
+
+	/**
+	 * Starts every framed request. See
+	 * {@link project.cs.lisa.bluetooth.provider.BluetoothProvider#FRAME_MARKER} */
+	private static final int FRAME_MARKER = 0;
+
+	/**
+	 * The size sent for a framed request of a file that does not exist. See
+	 * {@link project.cs.lisa.bluetooth.provider.BluetoothProvider#NOT_FOUND} */
+	private static final long NOT_FOUND = -1;
+
+	/** The size of the chunks files are sent in. */
+	private static final int CHUNK_SIZE = 16 * 1024;
+
 	/** Represents the number of attempts to create the Bluetooth server socket. */
 	private static final int NUMBER_OF_ATTEMPTS = 2;
 
+	/** Number of connections served at the same time when nothing is configured. */
+	private static final int DEFAULT_WORKERS = 4;
+
+	/** Number of connections one device may hold when nothing is configured. */
+	private static final int DEFAULT_PER_PEER = 2;
+
+	/** Milliseconds between looking for idle connections while all workers are busy. */
+	private static final long IDLE_CHECK_INTERVAL = 200;
+
 	/** Flag determining how long to listen for incoming pairing requests. */
 	private boolean mServerListens;
 
@@ -78,14 +127,24 @@ public class BluetoothServer extends Thread {
 	/** Device's Bluetooth Adapter. */
 	private BluetoothAdapter mBtAdapter;
 
-	/** The input stream used for reading in the hash. */
-	private DataInputStream mInStream;
-
-	/** The output stream used for writing the file to the remote device. */
-	private DataOutputStream mOutStream;
-
 	/** The directory containing the published files. */
 	private String mSharedFolder;
+
+	/** Serves the accepted connections. */
+	private ExecutorService mWorkers;
+
+	/** One permit per worker that is not serving a connection. */
+	private Semaphore mFreeWorkers;
+
+	/** Number of connections one device may hold. */
+	private int mMaxPerPeer;
+
+	/** The connections being served, guarded by itself. */
+	private final List<ConnectionHandler> mHandlers = new ArrayList<ConnectionHandler>();
+
+	/** The number of connections being served per device address, guarded by {@link #mHandlers}. */
+	private final Map<String, Integer> mPeerConnections = new HashMap<String, Integer>();
+
 	/**
 	 * Creates a new BluetoothServer that waits for incoming
 	 * bluetooth requests and handles file requests.
@@ -98,6 +157,22 @@ public class BluetoothServer extends Thread {
 		mSharedFolder = Environment.getExternalStorageDirectory() + relativeFolderPath;
 		createSharedFolder();
 
+		int workers = UProperties.INSTANCE.getIntPropertyWithName(
+				"bluetooth.server.workers", DEFAULT_WORKERS);
+		mMaxPerPeer = UProperties.INSTANCE.getIntPropertyWithName(
+				"bluetooth.server.per.peer", DEFAULT_PER_PEER);
+		mFreeWorkers = new Semaphore(workers);
+		mWorkers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG + "-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
 		mBtAdapter = BluetoothAdapter.getDefaultAdapter();
 		BluetoothServerSocket tmp = null;
 
@@ -149,9 +224,101 @@ public class BluetoothServer extends Thread {
 			}
 
 			if (socket != null) {
-				setUpIoStreams(socket);
-				handleIncomingRequest(socket);
-				cleanUp(socket);
+				dispatch(socket);
+			}
+		}
+	}
+
+	/**
+	 * Hands an accepted connection to a worker. If all workers are busy, an
+	 * idle connection is closed to free one; if there is none, this blocks
+	 * until a worker is free, which keeps further connections waiting in
+	 * the Bluetooth stack.
+	 *
+	 * @param socket	The accepted socket
+	 */
+	private void dispatch(BluetoothSocket socket) {
+		String address = socket.getRemoteDevice().getAddress();
+		ConnectionHandler handler = new ConnectionHandler(socket, address);
+
+		if (!register(handler)) {
+			Log.d(TAG, address + " already holds " + mMaxPerPeer + " connections, refusing another");
+			handler.cleanUp();
+			return;
+		}
+
+		try {
+			// Connections may become idle while waiting, so look again now and then
+			while (!mFreeWorkers.tryAcquire(IDLE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+				closeIdleConnection();
+			}
+			mWorkers.execute(handler);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			unregister(handler);
+			handler.cleanUp();
+		} catch (RejectedExecutionException e) {
+			// The server was cancelled meanwhile
+			mFreeWorkers.release();
+			unregister(handler);
+			handler.cleanUp();
+		}
+	}
+
+	/**
+	 * Records a new connection, unless its device holds too many already.
+	 *
+	 * @param handler	The handler of the connection
+	 * @return			True if the connection may be served
+	 */
+	private boolean register(ConnectionHandler handler) {
+		synchronized (mHandlers) {
+			Integer count = mPeerConnections.get(handler.mAddress);
+			int connections = count == null ? 0 : count;
+			if (connections >= mMaxPerPeer) {
+				return false;
+			}
+			mPeerConnections.put(handler.mAddress, connections + 1);
+			mHandlers.add(handler);
+		}
+		BluetoothDiscovery.INSTANCE.linkOpened();
+		return true;
+	}
+
+	/**
+	 * Forgets a connection that is no longer served.
+	 *
+	 * @param handler	The handler of the connection
+	 */
+	private void unregister(ConnectionHandler handler) {
+		synchronized (mHandlers) {
+			if (!mHandlers.remove(handler)) {
+				return;
+			}
+			int connections = mPeerConnections.get(handler.mAddress) - 1;
+			if (connections == 0) {
+				mPeerConnections.remove(handler.mAddress);
+			} else {
+				mPeerConnections.put(handler.mAddress, connections);
+			}
+		}
+		BluetoothDiscovery.INSTANCE.linkClosed();
+	}
+
+	/**
+	 * Closes a connection that is waiting for the next request, so that its
+	 * worker can serve a connection that has a request. The remote device
+	 * reconnects when it has another request.
+	 */
+	private void closeIdleConnection() {
+		synchronized (mHandlers) {
+			for (ConnectionHandler handler : mHandlers) {
+				if (handler.mIdle) {
+					Log.d(TAG, "All workers busy, closing the idle connection of " + handler.mAddress);
+					handler.cleanUp();
+					return;
+				}
 			}
 		}
 	}
@@ -166,6 +333,7 @@ public class BluetoothServer extends Thread {
 			if (mServerListens) {
 				mServerListens = false;
 				mBtServerSocket.close();
+				closeConnections();
 			} else {
 				Log.d(TAG, "Bluetooth Server is already closed.");
 			}
@@ -175,6 +343,18 @@ public class BluetoothServer extends Thread {
 		}
 	}
 
+	/**
+	 * Stops the workers and closes the connections they serve.
+	 */
+	private void closeConnections() {
+		mWorkers.shutdown();
+		synchronized (mHandlers) {
+			for (ConnectionHandler handler : mHandlers) {
+				handler.cleanUp();
+			}
+		}
+	}
+
 	/**
 	 * Creates the folder that contains the files to be shared with other phones.
 	 */
@@ -193,148 +373,241 @@ public class BluetoothServer extends Thread {
 	}
 
 	/**
-	 * Cleans up the openend socket and corresponding streams.
-	 *
-	 * @param socket	The socket used for the communication to the remote device.
-	 */
-	private void cleanUp(BluetoothSocket socket) {
-		try {
-			// Clean up open streams and sockets.
-			mOutStream.close();
-			mInStream.close();
-			socket.close();
-
-		} catch (IOException e) {
-			Log.e(TAG, "Closing the bluetooth socket failed.");
-		}
-	}
-
-	/**
-	 * Set up the streams used for reading in and writing to
-	 * a socket that connects this device to a remote device.
+	 * Returns the file specified by the hash.
 	 *
-	 * @param socket	The socket for reading and writing.
+	 * @param hash	The identfier of the file we request.
+	 * @return		The file that is identified with the specified hash
 	 */
-	private void setUpIoStreams(BluetoothSocket socket) {
-		Log.d(TAG, "Setting up streams for reading and writing files.");
+	private File getFileByHash(String hash) {
 
-		try {
-			mInStream = new DataInputStream(socket.getInputStream());
-			mOutStream = new DataOutputStream(socket.getOutputStream());
+		String filepath = mSharedFolder + hash;
+		File requestedFile = new File(filepath);
 
-		} catch (IOException e) {
-			Log.e(TAG, "Failed creating the streams for communicating.");
-		}
+		return requestedFile;
 	}
 
 	/**
-	 * Extracts the hash, searches for the file requested and sends the
-	 * corresponding file to the remote device.
+	 * Serves the requests of one remote device until it closes the connection.
 	 *
-	 * @param socket The bluetooth socket used for communicating with the remote device
+	 * A framed request is {@link #FRAME_MARKER} followed by the request in
+	 * modified UTF-8, as written by {@link DataOutputStream#writeUTF(String)}.
+	 * Older versions send a bare hash and expect the connection to be closed
+	 * after the response; a first byte other than the marker means such a
+	 * request.
 	 */
+	private class ConnectionHandler implements Runnable {
 
-	private void handleIncomingRequest(BluetoothSocket socket) {
-		Log.d(TAG, "Handle the incoming file request..");
+		/** The socket used for the communication to the remote device. */
+		private final BluetoothSocket mSocket;
 
-		// Receive the hash
-		String hash = readHash(socket);
+		/** The address of the remote device. */
+		private final String mAddress;
 
-		// Find the file on the device
-		File file = getFileByHash(hash);
+		/** Whether the connection is waiting for the next request. */
+		private volatile boolean mIdle;
 
-		// Create a byte array representation of the file
-		byte[] fileData = toByteArray(file);
+		/** The input stream used for reading in the hash. */
+		private DataInputStream mInStream;
 
-		// Send the data to the remote device
-		writeFile(fileData);
-	}
+		/** The output stream used for writing the file to the remote device. */
+		private DataOutputStream mOutStream;
 
-	/**
-	 * Writes the specified buffer to the current stream.
-	 *
-	 * @param buffer The data to be send.
-	 */
-
-	private void writeFile(byte[] buffer) {
-		Log.d(TAG, "Sending file of size: " + buffer.length);
-
-		try {
-			mOutStream.writeInt(buffer.length);
-			mOutStream.write(buffer, 0, buffer.length);
-			mOutStream.flush();
-
-			Log.d(TAG, "Done writing file to remote device.");
-
-		} catch (IOException e) {
-			Log.e(TAG, "Exception occured during writing", e);
+		/**
+		 * Creates a handler for an accepted connection.
+		 *
+		 * @param socket	The socket of the connection
+		 * @param address	The address of the remote device
+		 */
+		ConnectionHandler(BluetoothSocket socket, String address) {
+			mSocket = socket;
+			mAddress = address;
 		}
-	}
-
-	/**
-	 * Converts a file into a byte array.
-	 *
-	 * @param file	The file we want to convert.
-	 * @return		The byte array that corresponds to the file.
-	 */
-	private byte[] toByteArray(File file) {
-		Log.d(TAG, "Converting requested file to a byte array.");
 
-		byte[] fileByteArray = new byte[(int) file.length()];
-		FileInputStream fis;
+		@Override
+		public void run() {
+			try {
+				setUpIoStreams();
 
-		try {
+				int first = mInStream.read();
+				if (first == FRAME_MARKER) {
+					handleFramedRequests();
+				} else if (first != -1) {
+					handleIncomingRequest(readHash(first), false);
+				}
 
-			fis = new FileInputStream(file);
-			BufferedInputStream bis = new BufferedInputStream(fis);
-			bis.read(fileByteArray, 0, fileByteArray.length);
+			} catch (IOException e) {
+				// The remote device went away, nothing left to answer
+				Log.d(TAG, "Connection ended: " + e.getMessage());
+			} finally {
+				cleanUp();
+				unregister(this);
+				mFreeWorkers.release();
+			}
+		}
 
-			fis.close();
-			bis.close();
+		/**
+		 * Answers framed requests until the remote device closes the connection.
+		 *
+		 * @throws IOException	If the connection failed
+		 */
+		private void handleFramedRequests() throws IOException {
+			int marker = FRAME_MARKER;
+			while (marker == FRAME_MARKER) {
+				handleIncomingRequest(mInStream.readUTF(), true);
+				mIdle = true;
+				marker = mInStream.read();
+				mIdle = false;
+			}
+			if (marker != -1) {
+				Log.e(TAG, "Unexpected data between requests, closing the connection.");
+			}
+		}
 
-		} catch (FileNotFoundException e) {
-			Log.e(TAG, "The file " + file.getName() + " could not be found.");
+		/**
+		 * Set up the streams used for reading in and writing to
+		 * the socket that connects this device to a remote device.
+		 *
+		 * @throws IOException	If the streams could not be created
+		 */
+		private void setUpIoStreams() throws IOException {
+			Log.d(TAG, "Setting up streams for reading and writing files.");
+
+			mInStream = new DataInputStream(mSocket.getInputStream());
+			mOutStream = new DataOutputStream(mSocket.getOutputStream());
+		}
 
-		} catch (IOException e) {
-			Log.e(TAG, "Exception occured during file to byte array conversion.", e);
+		/**
+		 * Closes the socket and with it its streams. Other threads call this
+		 * to end the connection, which makes a blocked read fail.
+		 */
+		private void cleanUp() {
+			try {
+				mSocket.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Closing the bluetooth socket failed.");
+			}
 		}
 
-		return fileByteArray;
-	}
+		/**
+		 * Extracts the hash, searches for the file requested and sends the
+		 * corresponding file to the remote device.
+		 *
+		 * A framed request may name a range, as hash;offset;length, or the
+		 * position to resume from, as hash;offset. The response is the size
+		 * of the data as a long, the data and the CRC-32 of the data as an int.
+		 * Responses to older versions are the size as an int and the data.
+		 *
+		 * @param message	The hash, optionally followed by the range that is requested
+		 * @param framed	Whether the request was framed, so a missing file
+		 * 					can be reported without closing the connection
+		 * @throws IOException	If the response could not be sent
+		 */
+		private void handleIncomingRequest(String message, boolean framed) throws IOException {
+			Log.d(TAG, "Handle the incoming file request..");
+
+			String[] request = message.split(RANGE_SEPARATOR);
+
+			// Find the file on the device
+			File file = getFileByHash(request[0]);
+			if (!file.isFile()) {
+				Log.d(TAG, "The requested file does not exist: " + request[0]);
+				if (framed) {
+					mOutStream.writeLong(NOT_FOUND);
+				} else {
+					mOutStream.writeInt(0);
+				}
+				mOutStream.flush();
+				return;
+			}
 
-	/**
-	 * Returns the file specified by the hash.
-	 *
-	 * @param hash	The identfier of the file we request.
-	 * @return		The file that is identified with the specified hash
-	 */
-	private File getFileByHash(String hash) {
+			// Work out which part of the file is requested
+			long fileSize = file.length();
+			long offset = 0;
+			long length = fileSize;
+			try {
+				if (request.length > 1) {
+					offset = Math.min(Math.max(0, Long.parseLong(request[1])), fileSize);
+					length = fileSize - offset;
+				}
+				if (request.length > 2) {
+					length = Math.min(Math.max(0, Long.parseLong(request[2])), length);
+				}
+			} catch (NumberFormatException e) {
+				Log.e(TAG, "Malformed range request: " + message);
+				length = 0;
+			}
 
-		String filepath = mSharedFolder + hash;
-		File requestedFile = new File(filepath);
+			if (framed) {
+				mOutStream.writeLong(length);
+			} else if (length <= Integer.MAX_VALUE) {
+				mOutStream.writeInt((int) length);
+			} else {
+				throw new IOException("The file is too large for an older client.");
+			}
 
-		return requestedFile;
-	}
-	/**
-	 * Reads and returns the hash that is received through the current socket.
-	 *
-	 * @param socket	The bluetooth socket used for communicating with the remote device
-	 * @return			The hash that is read from the socket.
-	 */
-	private String readHash(BluetoothSocket socket) {
+			// Send the data to the remote device
+			long checksum = writeFile(file, offset, length);
+			if (framed) {
+				mOutStream.writeInt((int) checksum);
+			}
+			mOutStream.flush();
+		}
 
-		byte[] buffer = new byte[BUFFER_SIZE];
-		int length;
+		/**
+		 * Streams a part of a file to the current stream, one chunk at a time,
+		 * so the memory used does not depend on the size of the file.
+		 *
+		 * @param file		The file to send
+		 * @param offset	The position of the first byte to send
+		 * @param length	The number of bytes to send
+		 * @return			The CRC-32 of the bytes sent
+		 * @throws IOException	If the file could not be read completely or
+		 * 						the data could not be sent
+		 */
+		private long writeFile(File file, long offset, long length) throws IOException {
+			Log.d(TAG, "Sending " + length + " bytes at " + offset + " of " + file.getName());
+
+			CRC32 checksum = new CRC32();
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			FileInputStream in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
 
-		String readHash = "";
-		try {
-			length = mInStream.read(buffer);
-			readHash = new String(buffer, 0, length);
+			try {
+				long sent = 0;
+				while (sent < length) {
+					chunk.clear();
+					chunk.limit((int) Math.min(CHUNK_SIZE, length - sent));
+					int read = channel.read(chunk, offset + sent);
+					if (read < 0) {
+						// The size was already sent, so the response cannot be completed
+						throw new EOFException(file.getName() + " was truncated while being sent.");
+					}
+					checksum.update(chunk.array(), 0, read);
+					mOutStream.write(chunk.array(), 0, read);
+					sent += read;
+				}
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
 
-		} catch (IOException e) {
-			Log.e(TAG, "Couldn't extract streams for Bluetooth transmission.");
+			Log.d(TAG, "Done writing file to remote device.");
+			return checksum.getValue();
 		}
 
-		return readHash;
+		/**
+		 * Reads the rest of a request sent by an older version, which is
+		 * the bare hash without framing.
+		 *
+		 * @param first	The first byte of the request, already read
+		 * @return		The hash that is read from the socket.
+		 * @throws IOException	If the connection failed
+		 */
+		private String readHash(int first) throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			buffer[0] = (byte) first;
+
+			int length = mInStream.read(buffer, 1, buffer.length - 1);
+			return new String(buffer, 0, 1 + Math.max(0, length));
+		}
 	}
 }
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.bluetooth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.os.SystemClock;
+
+/**
+ * The Bluetooth devices that were seen recently, with when they were last
+ * seen and how strong their signal was.
+ *
+ * A device is dropped once it has not been seen for a time to live, so
+ * the table only names devices that are probably still in range.
+ */
+public class NeighborTable {
+
+    /** The fresh neighbors by MAC address. */
+    private final Map<String, Neighbor> mNeighbors = new HashMap<String, Neighbor>();
+
+    /** Milliseconds a neighbor is kept after it was last seen. */
+    private final long mTimeToLive;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param ttlMillis Milliseconds a neighbor is kept after it was last seen
+     */
+    public NeighborTable(long ttlMillis) {
+        mTimeToLive = ttlMillis;
+    }
+
+    /**
+     * Records that a device was seen right now.
+     *
+     * @param address   The MAC address of the device
+     * @param rssi      The signal strength in dBm, or {@link Neighbor#UNKNOWN_RSSI}
+     */
+    public synchronized void update(String address, short rssi) {
+        mNeighbors.put(address, new Neighbor(address, rssi, now()));
+    }
+
+    /**
+     * Returns a neighbor, as long as it has not expired.
+     *
+     * @param address   The MAC address of the device
+     * @return The neighbor, or null if it has not been seen recently
+     */
+    public synchronized Neighbor get(String address) {
+        Neighbor neighbor = mNeighbors.get(address);
+        if (neighbor != null && isExpired(neighbor)) {
+            mNeighbors.remove(address);
+            return null;
+        }
+        return neighbor;
+    }
+
+    /**
+     * Drops the expired neighbors and returns the addresses of the others.
+     *
+     * @return The MAC addresses of the devices that were seen recently
+     */
+    public synchronized List<String> getAddresses() {
+        List<String> addresses = new ArrayList<String>(mNeighbors.size());
+        Iterator<Neighbor> neighbors = mNeighbors.values().iterator();
+        while (neighbors.hasNext()) {
+            Neighbor neighbor = neighbors.next();
+            if (isExpired(neighbor)) {
+                neighbors.remove();
+            } else {
+                addresses.add(neighbor.getAddress());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the number of neighbors, including expired ones not yet dropped.
+     *
+     * @return The number of neighbors
+     */
+    public synchronized int size() {
+        return mNeighbors.size();
+    }
+
+    /**
+     * Forgets all neighbors, e.g. when Bluetooth is turned off.
+     */
+    public synchronized void clear() {
+        mNeighbors.clear();
+    }
+
+    /**
+     * Checks whether a neighbor has not been seen for too long.
+     *
+     * @param neighbor  The neighbor
+     * @return True if the neighbor should be dropped
+     */
+    private boolean isExpired(Neighbor neighbor) {
+        return now() - neighbor.getLastSeen() > mTimeToLive;
+    }
+
+    /**
+     * Returns the current time in milliseconds, from a clock that does not
+     * jump when the wall clock is changed.
+     *
+     * @return  The current time
+     */
+    protected long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * A device that was seen during a discovery.
+     */
+    public static final class Neighbor {
+
+        /** The signal strength of a device that did not report one. */
+        public static final short UNKNOWN_RSSI = Short.MIN_VALUE;
+
+        /** The MAC address of the device. */
+        private final String mAddress;
+
+        /** The signal strength in dBm. */
+        private final short mRssi;
+
+        /** When the device was last seen. */
+        private final long mLastSeen;
+
+        /**
+         * Creates a neighbor.
+         *
+         * @param address   The MAC address of the device
+         * @param rssi      The signal strength in dBm
+         * @param lastSeen  When the device was last seen
+         */
+        private Neighbor(String address, short rssi, long lastSeen) {
+            mAddress = address;
+            mRssi = rssi;
+            mLastSeen = lastSeen;
+        }
+
+        /**
+         * @return The MAC address of the device
+         */
+        public String getAddress() {
+            return mAddress;
+        }
+
+        /**
+         * @return The signal strength in dBm, or {@link #UNKNOWN_RSSI}
+         */
+        public short getRssi() {
+            return mRssi;
+        }
+
+        /**
+         * @return When the device was last seen, in milliseconds of
+         *         {@link SystemClock#elapsedRealtime()}
+         */
+        public long getLastSeen() {
+            return mLastSeen;
+        }
+    }
+}
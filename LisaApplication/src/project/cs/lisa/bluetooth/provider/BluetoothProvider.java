@@ -24,27 +24,38 @@
  * principles and programming methods.
  *
  */
-
 package project.cs.lisa.bluetooth.provider;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.UUID;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
+import project.cs.lisa.bluetooth.provider.ConnectionPool.Connection;
+import project.cs.lisa.util.UProperties;
 import android.util.Log;
 
 /**
  * The BluetoothProvider handles data transmission via Bluetooth.
  *
+ * Connections to remote devices are kept open for a while after a
+ * request, so that further requests to the same device skip the slow
+ * RFCOMM connection setup.
+ *
  * @author Kim-Anh Tran
  * @author Paolo Boschini
  *
  */
-public class BluetoothProvider implements ByteArrayProvider {
+public class BluetoothProvider implements ByteArrayProvider, StreamProvider {
 
     /** Debug Tag. */
     private static final String TAG = "BluetoothProvider";
@@ -56,18 +67,49 @@ public class BluetoothProvider implements ByteArrayProvider {
     /** All bluetooth locators have the following indicator in their address. */
     private static final String BLUETOOTH_LOCATOR_INDICATOR = "nimacbt";
 
-    /** Represents the number of attempts to connect to a remote device. */
-    private static final int NUMBER_OF_ATTEMPTS = 2;
+    /** Separates the hash, offset and length of a range request. */
+    public static final String RANGE_SEPARATOR = ";";
+
+    /**
+     * Starts every request on a connection, so the server can tell framed
+     * requests from a bare hash sent by older versions.
+     */
+    public static final int FRAME_MARKER = 0;
+
+    /** The response size the server sends if it does not have the BO. */
+    public static final long NOT_FOUND = -1;
+
+    /** How often a broken transfer is resumed where it stopped. */
+    private static final int NUMBER_OF_RESUMES = 2;
+
+    /** Size of the buffer a BO is copied through from the socket. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Seconds an idle connection is kept open when nothing is configured. */
+    private static final int DEFAULT_IDLE_TIMEOUT = 30;
+
+    /**
+     * Number of connections a device serves from one device when nothing is
+     * configured. See {@link project.cs.lisa.bluetooth.BluetoothServer}
+     */
+    private static final int DEFAULT_PER_PEER = 2;
+
+    /** Milliseconds per second. */
+    private static final long MILLIS = 1000;
 
-    /** The Bluetooth adapter. */
-    private BluetoothAdapter mBluetoothAdapter = null;
+    /** The open connections to remote devices. */
+    private final ConnectionPool mConnections;
 
     /**
      * Creates a BluetoothProvider that will handle data transmission
      * via Bluetooth.
      */
     public BluetoothProvider() {
-        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        mConnections = new ConnectionPool(MY_UUID,
+                UProperties.INSTANCE.getIntPropertyWithName(
+                        "bluetooth.pool.idle", DEFAULT_IDLE_TIMEOUT) * MILLIS,
+                UProperties.INSTANCE.getIntPropertyWithName(
+                        "bluetooth.server.per.peer", DEFAULT_PER_PEER));
     }
 
     /**
@@ -80,123 +122,307 @@ public class BluetoothProvider implements ByteArrayProvider {
      */
     @Override
     public byte[] getByteArray(String locator, String hash) {
-        byte[] fileArray = null;
-        BluetoothSocket socket = null;
-
-        try {
-            // Connect
-            socket = connectToRemoteDevice(locator);
-
-            // Send request
-            sendRequest(socket, hash);
-
-            // Download file
-            fileArray = downloadFile(socket);
+        return request(locator, hash, new ByteArrayOutputStream());
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Connection to locator failed.");
-            fileArray = null;
+    /**
+     * Returns a range of a BO after a successful connection and transmission.
+     *
+     * @param   locator     The source from where to fetch the range
+     * @param   hash        A hash identifying the BO
+     * @param   offset      The position of the range in the BO
+     * @param   length      The length of the range
+     * @return  The bytes of the range
+     */
+    @Override
+    public byte[] getByteArray(String locator, String hash, long offset, int length) {
+        byte[] range = request(locator, hash + RANGE_SEPARATOR + offset + RANGE_SEPARATOR + length,
+                new ByteArrayOutputStream(length));
+        if (range != null && range.length != length) {
+            Log.e(TAG, "Received " + range.length + " bytes instead of " + length);
+            return null;
+        }
+        return range;
+    }
 
-            if (socket != null) {
-                try {
-                    socket.close();
-                } catch (IOException e1) {
-                    Log.e(TAG, "Something went wrong when closing the socket!");
+    /**
+     * Writes a BO into a channel as it is received from a remote device.
+     * If the connection breaks after part of the BO was received, the rest
+     * is requested from where the transfer stopped.
+     *
+     * @param   locator     The source from where to fetch the BO
+     * @param   hash        A hash identifying the BO
+     * @param   target      The channel to write the BO to
+     * @return  The number of bytes written
+     * @throws  IOException If the transfer failed or was cancelled
+     */
+    @Override
+    public long transfer(String locator, String hash, WritableByteChannel target)
+            throws IOException {
+        CountingChannel counter = new CountingChannel(target);
+        int resumes = NUMBER_OF_RESUMES;
+
+        while (true) {
+            long received = counter.getCount();
+            String request = received == 0 ? hash : hash + RANGE_SEPARATOR + received;
+            try {
+                send(locator, request, counter);
+                return counter.getCount();
+
+            } catch (IOException e) {
+                // Only resume if the broken transfer made progress
+                if (resumes == 0 || counter.getCount() == received
+                        || e instanceof InterruptedIOException
+                        || e instanceof FileNotFoundException
+                        || e instanceof ChecksumException) {
+                    throw e;
                 }
+                resumes--;
+                Log.d(TAG, "Resuming the transfer from " + locator + " at " + counter.getCount());
             }
         }
-        return fileArray;
     }
 
     /**
-     * Attempt a connection to a remote device via Bluetooth
-     * and returns a socket after a successful connection.
-     * @param   locator     The device we want to connect to
-     * @return  The Bluetooth socket for the communication.
-     * @throws  IOException The exception for the socket.
+     * Sends a request to a remote device and returns the data it responds with.
+     *
+     * @param   locator     The device to send the request to
+     * @param   request     The hash of the BO, optionally followed by a range
+     * @param   out         The buffer to collect the data in
+     * @return  The received data, or null if the transfer failed
      */
-    private BluetoothSocket connectToRemoteDevice(String locator) throws IOException{
-        Log.d(TAG, "Start requesting a socket to a remote device: " + locator);
+    private byte[] request(String locator, String request, ByteArrayOutputStream out) {
+        try {
+            send(locator, request, Channels.newChannel(out));
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.e(TAG, "Connection to locator failed.");
+            return null;
+        }
+    }
 
-        BluetoothSocket socket = null;
-        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(locator);
+    /**
+     * Sends a request to a remote device and copies the data it responds
+     * with into a channel. An idle connection to the device is reused if
+     * there is one; if the device closed it in the meantime, the request
+     * is sent once more over a new connection.
+     *
+     * @param   locator     The device to send the request to
+     * @param   request     The hash of the BO, optionally followed by a range
+     * @param   target      The channel to write the data to
+     * @return  The number of bytes written
+     * @throws  IOException If the transfer failed or was cancelled
+     */
+    private long send(String locator, String request, WritableByteChannel target)
+            throws IOException {
+        Connection connection = mConnections.acquire(locator);
+        long size;
 
-        // Tries to connect to remote device several times up to a limit
-        int attempts = NUMBER_OF_ATTEMPTS;
-        boolean connectionSucceeded = false;
-        do {
-	        try {
-	        	// Get a BluetoothSocket for a connection with the given BluetoothDevice.
-	        	socket   = device.createRfcommSocketToServiceRecord(MY_UUID);
+        try {
+            checkCancelled();
+            sendRequest(connection, request);
+            size = readSize(connection);
 
-	            /* This is a blocking call and will only return on a
-	             * successful connection or an exception.
-	             */
-	            Log.d(TAG, "Trying to connect to a device through a socket...");
-	            mBluetoothAdapter.cancelDiscovery();
-	            socket.connect();
+        } catch (IOException e) {
+            mConnections.discard(connection);
+            if (!connection.isReused() || e instanceof InterruptedIOException) {
+                throw e;
+            }
 
-	            connectionSucceeded = true;
-	        } catch (IOException e) {
-	        	--attempts;
-	        }
-        } while (!connectionSucceeded && attempts > 0);
+            // The device closed the idle connection before it got the request
+            Log.d(TAG, "Reconnecting to " + locator);
+            connection = mConnections.connect(locator);
+            try {
+                sendRequest(connection, request);
+                size = readSize(connection);
+            } catch (IOException retryFailure) {
+                mConnections.discard(connection);
+                throw retryFailure;
+            }
+        }
 
-        if (!connectionSucceeded) {
-        	Log.e(TAG, "Device couldn't establish a connection to selected remote device.");
+        return receive(connection, size, target);
+    }
 
-        	throw new IOException("Couldn't establish connection to remote device.");
+    /**
+     * Reads the response to a request and gives the connection back to the
+     * pool. The connection is in step again once the response is read
+     * completely, even if the device did not have the BO.
+     *
+     * @param   connection  The connection the request was sent over
+     * @param   size        The size of the response, or {@link #NOT_FOUND}
+     * @param   target      The channel to write the data to
+     * @return  The number of bytes written
+     * @throws  IOException If the transfer failed or was cancelled
+     */
+    private long receive(Connection connection, long size, WritableByteChannel target)
+            throws IOException {
+        if (size == NOT_FOUND) {
+            mConnections.release(connection);
+            throw new FileNotFoundException("The remote device does not have the BO.");
         }
 
-        return socket;
+        long received;
+        try {
+            received = downloadFile(connection, size, target);
+        } catch (IOException e) {
+            mConnections.discard(connection);
+            throw e;
+        }
+        mConnections.release(connection);
+        return received;
     }
 
     /**
      * Send a request to a remote device sending the hash identifier
-     * for retrieving the corresponding BO.
-     * @param   socket  The socket for connecting with the remote device
-     * @param   hash    The identifier for requesting the BO
+     * for retrieving the corresponding BO. The hash may be followed by
+     * the offset and length of a range, separated by {@link #RANGE_SEPARATOR}.
+     * Each request starts with {@link #FRAME_MARKER} and the length of the
+     * request, so that several requests can follow each other on one connection.
+     * @param   connection  The connection to the remote device
+     * @param   request     The identifier for requesting the BO
      * @throws  IOException Exception for the stream.
      */
-    private void sendRequest(BluetoothSocket socket, String hash) throws IOException {
+    private void sendRequest(Connection connection, String request) throws IOException {
         Log.d(TAG, "Write the hash request to the connected locator. ");
 
-        DataOutputStream outStream = null;
+        DataOutputStream outStream = connection.getOutputStream();
+        outStream.writeByte(FRAME_MARKER);
+        outStream.writeUTF(request);
+        outStream.flush();
+    }
 
-        // Get the output stream for sending the hash
-        outStream = new DataOutputStream(socket.getOutputStream());
-        outStream.write(hash.getBytes());
+    /**
+     * Reads the size of the response to a request.
+     * @param   connection  The connection the request was sent over
+     * @return  The size of the BO or range, or {@link #NOT_FOUND}
+     * @throws  IOException Exception for the stream.
+     */
+    private long readSize(Connection connection) throws IOException {
+        long size = connection.getInputStream().readLong();
+        if (size < 0 && size != NOT_FOUND) {
+            throw new IOException("Invalid response size " + size);
+        }
+        return size;
     }
 
     /**
-     * Attempt to retrieve a BO blocking the connection.
-     * @param   socket  The socket for the connection
-     * @return  The byte stream representing the retrieved BO
-     * @throws  IOException Exception for the streams
+     * Attempt to retrieve a BO blocking the connection. The BO is copied
+     * into the channel piece by piece as it arrives, and checked against
+     * the CRC-32 the server sends after it.
+     * @param   connection  The connection the request was sent over
+     * @param   fileSize    The size of the BO
+     * @param   target      The channel to write the BO to
+     * @return  The size of the BO
+     * @throws  IOException Exception for the streams, or if the data was corrupted
      */
-    private byte[] downloadFile(BluetoothSocket socket) throws IOException {
+    private long downloadFile(Connection connection, long fileSize, WritableByteChannel target)
+            throws IOException {
         Log.d(TAG, "Begining downloading the file");
 
-        DataInputStream inStream = null;
-        byte[] buffer = null;
+        DataInputStream inStream = connection.getInputStream();
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, fileSize)];
+        CRC32 checksum = new CRC32();
 
+        long offset = 0;
 
-        // Get the input stream for receiving the file
-        inStream = new DataInputStream(socket.getInputStream());
-        final int fileSize = inStream.readInt();
-        buffer = new byte[fileSize];
+        while (offset < fileSize) {
+            checkCancelled();
+            int read = inStream.read(buffer, 0, (int) Math.min(buffer.length, fileSize - offset));
+            if (read < 0) {
+                throw new EOFException("The remote device closed the connection.");
+            }
 
-        int offset = 0;
+            checksum.update(buffer, 0, read);
+            ByteBuffer received = ByteBuffer.wrap(buffer, 0, read);
+            while (received.hasRemaining()) {
+                target.write(received);
+            }
+            offset += read;
+        }
 
-        while (offset < fileSize) {
-            offset += inStream.read(buffer, offset, (fileSize - offset));
+        if (inStream.readInt() != (int) checksum.getValue()) {
+            throw new ChecksumException();
         }
 
-        inStream.close();
+        return offset;
+    }
+
+    /**
+     * Thrown if the received data does not match the checksum sent with it.
+     */
+    private static class ChecksumException extends IOException {
+
+        /** Serial version. */
+        private static final long serialVersionUID = 1L;
 
-        return buffer;
+        /**
+         * Creates the exception.
+         */
+        ChecksumException() {
+            super("The received data does not match its checksum.");
+        }
     }
-    
+
+    /**
+     * Counts the bytes written to a channel, so that a broken transfer knows
+     * where to resume.
+     */
+    private static class CountingChannel implements WritableByteChannel {
+
+        /** The channel the bytes are written to. */
+        private final WritableByteChannel mTarget;
+
+        /** The number of bytes written so far. */
+        private long mCount;
+
+        /**
+         * Wraps a channel.
+         *
+         * @param target    The channel the bytes are written to
+         */
+        CountingChannel(WritableByteChannel target) {
+            mTarget = target;
+        }
+
+        /**
+         * @return The number of bytes written so far
+         */
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = mTarget.write(source);
+            mCount += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mTarget.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mTarget.close();
+        }
+    }
+
+    /**
+     * Aborts the transfer if it has been cancelled, e.g. because another
+     * locator delivered the BO first. Blocking Bluetooth calls do not react
+     * to interrupts, so the transfer checks for them between reads.
+     *
+     * @throws InterruptedIOException If the current thread was interrupted
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The transfer was cancelled.");
+        }
+    }
+
      /**
      * Checks if this provider can handle the locator from where to retrieve a BO.
      *
@@ -218,4 +444,4 @@ public class BluetoothProvider implements ByteArrayProvider {
         return "A Bluetooth provider. This provider will attempt to retrieve a file"
                 + "via a Bluetooth connection from a remote device.";
     }
-}
\ No newline at end of file
+}
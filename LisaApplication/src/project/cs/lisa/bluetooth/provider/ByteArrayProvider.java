@@ -49,6 +49,22 @@ public interface ByteArrayProvider {
     */
    byte[] getByteArray(String locator, String hash);
 
+   /**
+    * Given a locator and a file hash, this method provides a range of the byte array
+    * corresponding to the hash.
+    * 
+    * @param locator
+    *           The locator from where the range should be fetched
+    * @param hash
+    *           The hash of the file the range belongs to
+    * @param offset
+    *           The position of the first byte of the range in the file
+    * @param length
+    *           The number of bytes in the range
+    * @return The bytes of the range, or null if the range could not be fetched.
+    */
+   byte[] getByteArray(String locator, String hash, long offset, int length);
+
    /**
     * Decides whether this locator can be handled or not.
     * 
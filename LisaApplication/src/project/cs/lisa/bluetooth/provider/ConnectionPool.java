@@ -0,0 +1,503 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.bluetooth.provider;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import project.cs.lisa.bluetooth.BluetoothDiscovery;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps RFCOMM connections to remote devices open between requests, so
+ * that fetching several BOs from the same device needs one connect
+ * instead of one per BO.
+ *
+ * <p>
+ * A connection is used by one request at a time: it is taken with
+ * {@link #acquire(String)} and given back with {@link #release(Connection)}
+ * once the response was read completely, or closed with
+ * {@link #discard(Connection)} if the request failed and the stream may be
+ * out of step. Connections that stay idle for too long are closed in the
+ * background.
+ *
+ * <p>
+ * A device only serves a few connections from the same device at once and
+ * closes any further ones, so no more than that are kept open to one
+ * device; a request that finds them all in use waits until one is given
+ * back.
+ */
+class ConnectionPool {
+
+    /** Debug tag. */
+    private static final String TAG = "ConnectionPool";
+
+    /** Represents the number of attempts to connect to a remote device. */
+    private static final int NUMBER_OF_ATTEMPTS = 2;
+
+    /** The service the remote devices listen on. */
+    private final UUID mUuid;
+
+    /** Milliseconds an idle connection is kept open. */
+    private final long mIdleTimeout;
+
+    /** The most connections kept open to one device. */
+    private final int mMaxPerDevice;
+
+    /** The Bluetooth adapter. */
+    private final BluetoothAdapter mBluetoothAdapter;
+
+    /** The idle connections by device address, the most recently used last. */
+    private final Map<String, LinkedList<Connection>> mIdle =
+            new HashMap<String, LinkedList<Connection>>();
+
+    /**
+     * The number of open or opening connections by device address, idle or
+     * in use, guarded by {@link #mIdle}.
+     */
+    private final Map<String, Integer> mOpen = new HashMap<String, Integer>();
+
+    /** Closes idle connections. */
+    private final ScheduledExecutorService mReaper;
+
+    /**
+     * Creates a pool.
+     *
+     * @param uuid              The service the remote devices listen on
+     * @param idleTimeoutMillis Milliseconds an idle connection is kept open
+     * @param maxPerDevice      The most connections kept open to one device
+     */
+    ConnectionPool(UUID uuid, long idleTimeoutMillis, int maxPerDevice) {
+        mUuid = uuid;
+        mIdleTimeout = idleTimeoutMillis;
+        mMaxPerDevice = maxPerDevice;
+        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+
+        mReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Sockets do not survive a Bluetooth restart
+        BluetoothDiscovery.INSTANCE.addOffListener(new BluetoothDiscovery.OffListener() {
+            @Override
+            public void onBluetoothOff() {
+                closeAll();
+            }
+        });
+
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        mReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a connection to a device, reusing an idle one if there is a
+     * healthy one and connecting otherwise. If the most connections are
+     * open to the device already, this waits until one is given back.
+     *
+     * @param address   The MAC address of the device
+     * @return A connection that only the caller uses until it is released
+     * @throws IOException If no connection could be established, or if
+     *                     interrupted while waiting for one
+     */
+    Connection acquire(String address) throws IOException {
+        Connection connection;
+        while ((connection = reserve(address, true)) != null) {
+            if (connection.isHealthy()) {
+                Log.d(TAG, "Reusing the connection to " + address);
+                return connection;
+            }
+            Log.d(TAG, "Dropping a broken connection to " + address);
+            close(connection);
+        }
+        return open(address);
+    }
+
+    /**
+     * Connects to a device without reusing an idle connection, e.g.
+     * because a reused connection turned out to be closed by the device.
+     * Idle connections are closed if that makes room for the new one.
+     *
+     * @param address   The MAC address of the device
+     * @return A new connection
+     * @throws IOException If no connection could be established, or if
+     *                     interrupted while waiting for room
+     */
+    Connection connect(String address) throws IOException {
+        reserve(address, false);
+        return open(address);
+    }
+
+    /**
+     * Waits until a connection to a device may be used. Either an idle
+     * connection is taken, or room for a new connection is reserved as soon
+     * as fewer than the most connections are open to the device.
+     *
+     * @param address   The MAC address of the device
+     * @param reuseIdle Whether an idle connection may be returned; if not,
+     *                  idle connections are closed to make room
+     * @return An idle connection, or null if room for a new one was reserved
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    private Connection reserve(String address, boolean reuseIdle)
+            throws InterruptedIOException {
+        synchronized (mIdle) {
+            while (true) {
+                Connection idle = takeIdle(address);
+                if (idle != null && reuseIdle) {
+                    return idle;
+                }
+                if (idle != null) {
+                    close(idle);
+                    continue;
+                }
+
+                Integer count = mOpen.get(address);
+                int open = count == null ? 0 : count;
+                if (open < mMaxPerDevice) {
+                    mOpen.put(address, open + 1);
+                    return null;
+                }
+
+                Log.d(TAG, "Waiting for one of the connections to " + address);
+                try {
+                    mIdle.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a connection.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection to a device, for which room was reserved.
+     *
+     * @param address   The MAC address of the device
+     * @return A new connection
+     * @throws IOException If no connection could be established
+     */
+    private Connection open(String address) throws IOException {
+        Log.d(TAG, "Start requesting a socket to a remote device: " + address);
+        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+
+        // Tries to connect to remote device several times up to a limit
+        IOException failure = null;
+        for (int attempt = 0; attempt < NUMBER_OF_ATTEMPTS; attempt++) {
+            BluetoothSocket socket = null;
+            try {
+                // Get a BluetoothSocket for a connection with the given BluetoothDevice.
+                socket = device.createRfcommSocketToServiceRecord(mUuid);
+
+                /* This is a blocking call and will only return on a
+                 * successful connection or an exception.
+                 */
+                BluetoothDiscovery.INSTANCE.cancelDiscovery();
+                socket.connect();
+                return new Connection(address, socket);
+
+            } catch (IOException e) {
+                failure = e;
+                closeQuietly(socket);
+            }
+        }
+
+        Log.e(TAG, "Device couldn't establish a connection to selected remote device.");
+        closed(address);
+        IOException e = new IOException("Couldn't establish connection to remote device.");
+        e.initCause(failure);
+        throw e;
+    }
+
+    /**
+     * Gives a connection back after a request was completed, so the next
+     * request to the same device can use it.
+     *
+     * @param connection    The connection
+     */
+    void release(Connection connection) {
+        connection.mLastUsed = now();
+        connection.mReused = true;
+        synchronized (mIdle) {
+            LinkedList<Connection> idle = mIdle.get(connection.mAddress);
+            if (idle == null) {
+                idle = new LinkedList<Connection>();
+                mIdle.put(connection.mAddress, idle);
+            }
+            idle.addLast(connection);
+            mIdle.notifyAll();
+        }
+    }
+
+    /**
+     * Closes a connection that must not be reused.
+     *
+     * @param connection    The connection
+     */
+    void discard(Connection connection) {
+        close(connection);
+    }
+
+    /**
+     * Closes all idle connections, called when Bluetooth is turned off.
+     */
+    void closeAll() {
+        List<Connection> closing = new ArrayList<Connection>();
+        synchronized (mIdle) {
+            for (LinkedList<Connection> idle : mIdle.values()) {
+                closing.addAll(idle);
+            }
+            mIdle.clear();
+        }
+        for (Connection connection : closing) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection to a device.
+     *
+     * @param address   The MAC address of the device
+     * @return The connection, or null if there is none
+     */
+    private Connection takeIdle(String address) {
+        synchronized (mIdle) {
+            LinkedList<Connection> idle = mIdle.get(address);
+            if (idle == null) {
+                return null;
+            }
+            Connection connection = idle.pollLast();
+            if (idle.isEmpty()) {
+                mIdle.remove(address);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the idle
+     * timeout.
+     */
+    private void closeIdle() {
+        List<Connection> closing = new ArrayList<Connection>();
+        long now = now();
+        synchronized (mIdle) {
+            Iterator<LinkedList<Connection>> devices = mIdle.values().iterator();
+            while (devices.hasNext()) {
+                LinkedList<Connection> idle = devices.next();
+                Iterator<Connection> connections = idle.iterator();
+                while (connections.hasNext()) {
+                    Connection connection = connections.next();
+                    if (now - connection.mLastUsed >= mIdleTimeout) {
+                        connections.remove();
+                        closing.add(connection);
+                    }
+                }
+                if (idle.isEmpty()) {
+                    devices.remove();
+                }
+            }
+        }
+        for (Connection connection : closing) {
+            Log.d(TAG, "Closing the idle connection to " + connection.mAddress);
+            close(connection);
+        }
+    }
+
+    /**
+     * Closes a connection and makes room for another one to its device.
+     *
+     * @param connection    The connection
+     */
+    private void close(Connection connection) {
+        if (connection.close()) {
+            closed(connection.mAddress);
+        }
+    }
+
+    /**
+     * Records that a connection to a device was closed or could not be
+     * opened, and wakes up the requests waiting for room.
+     *
+     * @param address   The MAC address of the device
+     */
+    private void closed(String address) {
+        synchronized (mIdle) {
+            Integer count = mOpen.get(address);
+            if (count == null || count <= 1) {
+                mOpen.remove(address);
+            } else {
+                mOpen.put(address, count - 1);
+            }
+            mIdle.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the current time in milliseconds.
+     *
+     * @return The current time
+     */
+    private static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     *
+     * @param socket    The socket, or null
+     */
+    private static void closeQuietly(BluetoothSocket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Something went wrong when closing the socket!");
+        }
+    }
+
+    /** An open connection to a remote device. */
+    static final class Connection {
+
+        /** The MAC address of the device. */
+        private final String mAddress;
+
+        /** The socket of the connection. */
+        private final BluetoothSocket mSocket;
+
+        /** Reads responses. */
+        private final DataInputStream mIn;
+
+        /** Writes requests. */
+        private final DataOutputStream mOut;
+
+        /** When the connection was last given back to the pool. */
+        private long mLastUsed;
+
+        /** Whether the connection has served a request before. */
+        private boolean mReused;
+
+        /** Whether the connection has been closed. */
+        private boolean mClosed;
+
+        /**
+         * Wraps a connected socket.
+         *
+         * @param address   The MAC address of the device
+         * @param socket    The connected socket
+         * @throws IOException If the streams of the socket are not available
+         */
+        private Connection(String address, BluetoothSocket socket) throws IOException {
+            mAddress = address;
+            mSocket = socket;
+            mIn = new DataInputStream(socket.getInputStream());
+            mOut = new DataOutputStream(socket.getOutputStream());
+            BluetoothDiscovery.INSTANCE.linkOpened();
+        }
+
+        /**
+         * @return The stream responses are read from
+         */
+        DataInputStream getInputStream() {
+            return mIn;
+        }
+
+        /**
+         * @return The stream requests are written to
+         */
+        DataOutputStream getOutputStream() {
+            return mOut;
+        }
+
+        /**
+         * @return True if the connection has served a request before, so
+         *         the device may have closed it in the meantime
+         */
+        boolean isReused() {
+            return mReused;
+        }
+
+        /**
+         * Checks an idle connection before it is reused. Between requests
+         * the device does not send anything, so pending data means the
+         * stream is out of step and a read error means the link is gone.
+         *
+         * @return True if the connection can be used for a request
+         */
+        private boolean isHealthy() {
+            try {
+                return mIn.available() == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Closes the connection.
+         *
+         * @return True if this call closed it, false if it was closed before
+         */
+        private boolean close() {
+            synchronized (this) {
+                if (mClosed) {
+                    return false;
+                }
+                mClosed = true;
+            }
+            closeQuietly(mSocket);
+            BluetoothDiscovery.INSTANCE.linkClosed();
+            return true;
+        }
+    }
+}
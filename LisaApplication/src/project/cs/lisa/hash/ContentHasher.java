@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.hash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Computes the hashes used to name content.
+ *
+ * <p>
+ * Every thread gets its own message digest and copy buffer, which are reused
+ * for all content hashed on that thread. All entry points return the hash in
+ * the same encoding as {@link Hash#encodeResult()}.
+ */
+public enum ContentHasher {
+
+    /** The single instance. */
+    INSTANCE;
+
+    /** Size of the buffer used when hashing streams. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Files smaller than this are read instead of mapped. */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    /** Size of the part of a file that is mapped at a time. */
+    private static final long MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    /** One message digest per thread. */
+    private final ThreadLocal<MessageDigest> mDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return Hash.createDigest();
+        }
+    };
+
+    /** One copy buffer per thread. */
+    private final ThreadLocal<byte[]> mBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * Returns the digest of the calling thread, ready to be updated.
+     *
+     * @return The message digest
+     */
+    private MessageDigest digest() {
+        MessageDigest digest = mDigest.get();
+        // A previous call may have failed halfway through
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Hashes a byte array.
+     *
+     * @param data  The data to hash
+     * @return      The hash of the data
+     */
+    public String hash(byte[] data) {
+        MessageDigest digest = digest();
+        digest.update(data);
+        return Hash.encodeDigest(digest.digest(), 0);
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer. The position of the buffer
+     * is moved to its limit.
+     *
+     * @param data  The data to hash
+     * @return      The hash of the data
+     */
+    public String hash(ByteBuffer data) {
+        MessageDigest digest = digest();
+        digest.update(data);
+        return Hash.encodeDigest(digest.digest(), 0);
+    }
+
+    /**
+     * Hashes everything that can be read from a stream. The stream is not closed.
+     *
+     * @param in    The stream to hash
+     * @return      The hash of the data
+     * @throws IOException
+     *              In case reading the stream failed
+     */
+    public String hash(InputStream in) throws IOException {
+        return hash(in, null);
+    }
+
+    /**
+     * Copies a stream into another stream while hashing the copied data.
+     * None of the streams are closed.
+     *
+     * @param in    The stream to hash
+     * @param out   The stream to copy the data to, or null to only hash
+     * @return      The hash of the data
+     * @throws IOException
+     *              In case reading or writing failed
+     */
+    public String hash(InputStream in, OutputStream out) throws IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = mBuffer.get();
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        return Hash.encodeDigest(digest.digest(), 0);
+    }
+
+    /**
+     * Hashes the content of a file. Large files are mapped into memory one
+     * window at a time, so neither the heap nor a copy buffer holds the content.
+     *
+     * @param file  The file to hash
+     * @return      The hash of the file content
+     * @throws IOException
+     *              In case the file could not be read
+     */
+    public String hash(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long size = in.getChannel().size();
+            if (size < MAP_THRESHOLD) {
+                return hash(in);
+            }
+            return hash(in.getChannel(), size);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Hashes the first bytes of a channel by mapping it in windows.
+     *
+     * @param channel   The channel to hash
+     * @param size      The number of bytes to hash
+     * @return          The hash of the channel content
+     * @throws IOException
+     *                  In case the channel could not be mapped
+     */
+    private String hash(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = digest();
+
+        long position = 0;
+        while (position < size) {
+            long length = Math.min(MAP_WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+            digest.update(window);
+            position += length;
+        }
+
+        return Hash.encodeDigest(digest.digest(), 0);
+    }
+
+    /**
+     * Checks whether data matches the hash it was requested by.
+     * The expected hash may be truncated and may use either the base64 or
+     * the base64url alphabet, since both are used by NetInf nodes.
+     *
+     * @param data      The data to check
+     * @param expected  The hash the data was requested by
+     * @return          True if the data has the expected hash
+     */
+    public boolean matches(byte[] data, String expected) {
+        return matchesHash(hash(data), expected);
+    }
+
+    /**
+     * Checks whether an already computed hash matches the hash the data was
+     * requested by, with the same tolerance as {@link #matches(byte[], String)}.
+     *
+     * @param hash      The full base64 hash of the data
+     * @param expected  The hash the data was requested by
+     * @return          True if the hashes match
+     */
+    public boolean matchesHash(String hash, String expected) {
+        if (expected == null || expected.length() == 0) {
+            return false;
+        }
+        String normalized = expected.replace('-', '+').replace('_', '/');
+        return hash.startsWith(normalized);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.hash;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import project.cs.lisa.util.UProperties;
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * Hashes all files of a folder, one file per thread, on as many threads
+ * as there are processors.
+ */
+public class FolderHasher {
+
+    /** Debug tag. */
+    private static final String TAG = "FolderHasher";
+
+    /** Accepts the files that can be published, skipping hidden and temporary files. */
+    private static final FileFilter FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && !file.isHidden();
+        }
+    };
+
+    /** The number of files hashed at the same time. */
+    private final int mThreads;
+
+    /**
+     * Creates a folder hasher using one thread per available processor.
+     */
+    public FolderHasher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a folder hasher using the specified number of threads.
+     *
+     * @param threads   The number of files hashed at the same time
+     */
+    public FolderHasher(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Hashes all files of the folder configured as sharing.folder.
+     *
+     * @return  The hash of every file, see {@link #hashFolder(File)}
+     * @throws InterruptedException
+     *          If the thread was interrupted while waiting for the hashes
+     */
+    public Map<File, String> hashSharedFolder() throws InterruptedException {
+        String relativeFolderPath = UProperties.INSTANCE.getPropertyWithName("sharing.folder");
+        return hashFolder(new File(Environment.getExternalStorageDirectory() + relativeFolderPath));
+    }
+
+    /**
+     * Hashes all files directly inside a folder. Files that cannot be read
+     * are logged and left out of the result.
+     *
+     * @param folder    The folder to hash
+     * @return          The hash of every file, in the order the files were listed
+     * @throws InterruptedException
+     *                  If the thread was interrupted while waiting for the hashes
+     */
+    public Map<File, String> hashFolder(File folder) throws InterruptedException {
+        File[] files = folder.listFiles(FILES);
+        if (files == null || files.length == 0) {
+            return Collections.emptyMap();
+        }
+
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>(files.length);
+        for (final File file : files) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return ContentHasher.INSTANCE.hash(file);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, files.length));
+        try {
+            List<Future<String>> hashes = executor.invokeAll(tasks);
+
+            Map<File, String> result = new LinkedHashMap<File, String>();
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    result.put(files[i], hashes.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Failed hashing " + files[i] + ": " + e.getCause());
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.hash;
+
+/**
+ * Encodes digests into the textual hash part of ni names and decodes them again.
+ *
+ * <p>
+ * Both the standard base64 alphabet and the base64url alphabet of RFC 4648 are
+ * supported. ni names never carry padding, so none is written, and trailing
+ * padding characters are ignored when decoding.
+ *
+ * <p>
+ * Encoding writes straight into a char buffer that is kept by the codec, so
+ * encoding a digest allocates nothing but the resulting String. Because of that
+ * buffer a codec instance must not be shared between threads.
+ */
+public final class NiNameCodec {
+
+    /**
+     * The alphabets a codec can use.
+     */
+    public enum Alphabet {
+
+        /** Standard base64, as used for the names published by LISA. */
+        BASE64('+', '/'),
+
+        /** URL and filename safe base64, as used by the NetInf reference names. */
+        BASE64URL('-', '_');
+
+        /** Maps 6-bit values to characters. */
+        private final char[] mEncodeTable = new char[64];
+
+        /** Maps characters to 6-bit values, -1 for characters outside the alphabet. */
+        private final byte[] mDecodeTable = new byte[128];
+
+        /**
+         * Creates an alphabet.
+         *
+         * @param c62   The character for the value 62
+         * @param c63   The character for the value 63
+         */
+        private Alphabet(char c62, char c63) {
+            int i = 0;
+            for (char c = 'A'; c <= 'Z'; c++) {
+                mEncodeTable[i++] = c;
+            }
+            for (char c = 'a'; c <= 'z'; c++) {
+                mEncodeTable[i++] = c;
+            }
+            for (char c = '0'; c <= '9'; c++) {
+                mEncodeTable[i++] = c;
+            }
+            mEncodeTable[i++] = c62;
+            mEncodeTable[i++] = c63;
+
+            for (int j = 0; j < mDecodeTable.length; j++) {
+                mDecodeTable[j] = -1;
+            }
+            for (int j = 0; j < mEncodeTable.length; j++) {
+                mDecodeTable[mEncodeTable[j]] = (byte) j;
+            }
+        }
+    }
+
+    /** Length of a SHA-256 digest in bytes. */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** The padding character, only ever skipped. */
+    private static final char PADDING = '=';
+
+    /** The alphabet used by this codec. */
+    private final Alphabet mAlphabet;
+
+    /** Reusable output buffer for {@link #encode(byte[], int)}. */
+    private char[] mBuffer = new char[encodedLength(DIGEST_LENGTH)];
+
+    /**
+     * Creates a codec using the specified alphabet.
+     *
+     * @param alphabet  The alphabet
+     */
+    public NiNameCodec(Alphabet alphabet) {
+        mAlphabet = alphabet;
+    }
+
+    /**
+     * Returns the alphabet of this codec.
+     *
+     * @return The alphabet
+     */
+    public Alphabet getAlphabet() {
+        return mAlphabet;
+    }
+
+    /**
+     * Returns the number of characters needed to encode the
+     * specified number of bytes without padding.
+     *
+     * @param length    The number of bytes
+     * @return          The number of characters
+     */
+    public static int encodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Encodes a digest.
+     *
+     * @param digest    The digest bytes
+     * @return          The encoded digest
+     */
+    public String encode(byte[] digest) {
+        return encode(digest, 0);
+    }
+
+    /**
+     * Encodes a digest and truncates the result.
+     *
+     * @param digest    The digest bytes
+     * @param maxChars  The maximum number of characters to return, 0 for all of them
+     * @return          The encoded digest
+     */
+    public String encode(byte[] digest, int maxChars) {
+        int length = encodedLength(digest.length);
+        if (mBuffer.length < length) {
+            mBuffer = new char[length];
+        }
+        encode(digest, 0, digest.length, mBuffer, 0);
+
+        if (maxChars > 0 && maxChars < length) {
+            length = maxChars;
+        }
+        return new String(mBuffer, 0, length);
+    }
+
+    /**
+     * Encodes bytes into a caller supplied char array.
+     *
+     * @param in        The bytes to encode
+     * @param offset    Offset of the first byte to encode
+     * @param length    Number of bytes to encode
+     * @param out       The array to write to
+     * @param outOffset Offset of the first character to write
+     * @return          The number of characters written
+     */
+    public int encode(byte[] in, int offset, int length, char[] out, int outOffset) {
+        char[] table = mAlphabet.mEncodeTable;
+        int ip = offset;
+        int op = outOffset;
+        int fullEnd = offset + length - length % 3;
+
+        // Whole 3 byte groups
+        while (ip < fullEnd) {
+            int bits = (in[ip++] & 0xff) << 16 | (in[ip++] & 0xff) << 8 | (in[ip++] & 0xff);
+            out[op++] = table[bits >>> 18];
+            out[op++] = table[(bits >>> 12) & 0x3f];
+            out[op++] = table[(bits >>> 6) & 0x3f];
+            out[op++] = table[bits & 0x3f];
+        }
+
+        // Remaining 1 or 2 bytes
+        int remaining = length % 3;
+        if (remaining == 1) {
+            int bits = in[ip] & 0xff;
+            out[op++] = table[bits >>> 2];
+            out[op++] = table[(bits & 0x03) << 4];
+        } else if (remaining == 2) {
+            int bits = (in[ip] & 0xff) << 8 | (in[ip + 1] & 0xff);
+            out[op++] = table[bits >>> 10];
+            out[op++] = table[(bits >>> 4) & 0x3f];
+            out[op++] = table[(bits & 0x0f) << 2];
+        }
+
+        return op - outOffset;
+    }
+
+    /**
+     * Decodes an encoded digest.
+     *
+     * @param encoded   The encoded digest
+     * @return          The digest bytes
+     * @throws IllegalArgumentException
+     *                  If the input contains characters outside the alphabet
+     */
+    public byte[] decode(CharSequence encoded) {
+        byte[] out = new byte[decodedLength(encoded)];
+        decode(encoded, out, 0);
+        return out;
+    }
+
+    /**
+     * Decodes an encoded digest into a caller supplied byte array.
+     *
+     * @param encoded   The encoded digest
+     * @param out       The array to write to
+     * @param outOffset Offset of the first byte to write
+     * @return          The number of bytes written
+     * @throws IllegalArgumentException
+     *                  If the input contains characters outside the alphabet
+     */
+    public int decode(CharSequence encoded, byte[] out, int outOffset) {
+        int length = unpaddedLength(encoded);
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid length of encoded data: " + length);
+        }
+
+        int ip = 0;
+        int op = outOffset;
+        int fullEnd = length - length % 4;
+
+        // Whole 4 character groups
+        while (ip < fullEnd) {
+            int bits = value(encoded, ip++) << 18 | value(encoded, ip++) << 12
+                    | value(encoded, ip++) << 6 | value(encoded, ip++);
+            out[op++] = (byte) (bits >>> 16);
+            out[op++] = (byte) (bits >>> 8);
+            out[op++] = (byte) bits;
+        }
+
+        // Remaining 2 or 3 characters
+        int remaining = length % 4;
+        if (remaining == 2) {
+            int bits = value(encoded, ip) << 6 | value(encoded, ip + 1);
+            out[op++] = (byte) (bits >>> 4);
+        } else if (remaining == 3) {
+            int bits = value(encoded, ip) << 12 | value(encoded, ip + 1) << 6
+                    | value(encoded, ip + 2);
+            out[op++] = (byte) (bits >>> 10);
+            out[op++] = (byte) (bits >>> 2);
+        }
+
+        return op - outOffset;
+    }
+
+    /**
+     * Returns the number of bytes the specified encoded data decodes to.
+     *
+     * @param encoded   The encoded data
+     * @return          The number of bytes
+     */
+    public static int decodedLength(CharSequence encoded) {
+        return unpaddedLength(encoded) * 3 / 4;
+    }
+
+    /**
+     * Returns the length of the encoded data without trailing padding.
+     *
+     * @param encoded   The encoded data
+     * @return          The length without padding
+     */
+    private static int unpaddedLength(CharSequence encoded) {
+        int length = encoded.length();
+        while (length > 0 && encoded.charAt(length - 1) == PADDING) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Looks up the 6-bit value of an encoded character.
+     *
+     * @param encoded   The encoded data
+     * @param index     The index of the character
+     * @return          The 6-bit value
+     * @throws IllegalArgumentException
+     *                  If the character is not part of the alphabet
+     */
+    private int value(CharSequence encoded, int index) {
+        char c = encoded.charAt(index);
+        int value = c < 128 ? mAlphabet.mDecodeTable[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal character '" + c
+                    + "' at position " + index + " for alphabet " + mAlphabet);
+        }
+        return value;
+    }
+}
@@ -60,13 +60,14 @@ import netinf.common.datamodel.InformationObject;
 import netinf.common.datamodel.attribute.Attribute;
 import netinf.common.exceptions.NetInfCheckedException;
 
-import org.apache.commons.io.FileUtils;
 import org.restlet.resource.Get;
 
 import project.cs.lisa.application.MainApplication;
 import project.cs.lisa.metadata.Metadata;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedAttributeIdentification;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import project.cs.lisa.netinf.node.resolution.NameResolutionService;
+import project.cs.lisa.transferdispatcher.ChunkManifest;
 import project.cs.lisa.transferdispatcher.TransferDispatcher;
 import project.cs.lisa.util.UProperties;
 import android.media.MediaScannerConnection;
@@ -134,8 +135,6 @@ public class BOResource extends LisaServerResource {
     public String retrieveBO() {
         Log.d(TAG, "Trying to retrieve the BO.");
 
-        byte[] fileData = null;
-
         // Retrieve a data object from a node (could be an NRS)
         InformationObject io = retrieveDO();
 
@@ -160,22 +159,23 @@ public class BOResource extends LisaServerResource {
         // Retrieve the data corresponding to the hash from another device.
         if (io != null) {
             TransferDispatcher tsDispatcher = TransferDispatcher.INSTANCE;
+            String filePath = getFilePath(io);
 
             try {
-                fileData = tsDispatcher.getByteArray(io);
+                // Large BOs are fetched chunk by chunk from several devices
+                ChunkManifest manifest = ChunkManifest.fromIo(io);
+                if (manifest != null) {
+                    tsDispatcher.getFile(io, manifest, new File(filePath));
+                } else {
+                    tsDispatcher.getFile(io, new File(filePath));
+                }
             } catch (IOException e) {
-                Log.e(TAG, "Couldn't retrieve the requested data.");
+                Log.e(TAG, "Couldn't retrieve the requested data: " + e.getMessage());
+                invalidateLocators();
                 return null;
             }
 
-            if (fileData != null) {
-                String metaDataString = saveBO(io, fileData);
-                return metaDataString;
-
-            } else {
-                Log.e(TAG, "No file data to write.");
-                return null;
-            }
+            return describeBO(io, filePath);
 
         } else {
             Log.e(TAG, "InformationObject is null. Nothing was done here.");
@@ -184,33 +184,36 @@ public class BOResource extends LisaServerResource {
     }
 
     /**
-     * Saves the file data corresponding to the specified io and
-     * returns a String representation of the related meta-data.
+     * Returns where the BO of the specified io is stored.
      *
-     * @param io		The Information Object describing the file data
-     * @param fileData	The file data corresponding to the io
-     * @return			Returns a String representation of the meta data.
+     * @param io    The Information Object describing the file data
+     * @return      The path of the file in the shared folder
      */
-    private String saveBO(InformationObject io, byte[] fileData) {
-
-        // Store the content type of the requested BO
-        String contentType = io.getIdentifier().getIdentifierLabel(
-                SailDefinedLabelName.CONTENT_TYPE.getLabelName())
-                .getLabelValue();
-
+    private String getFilePath(InformationObject io) {
         // Set saving filename to the same filename as in metadata
         String hash = io.getIdentifier().getIdentifierLabel(SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
         String filePath = Environment.getExternalStorageDirectory() 
                 + UProperties.INSTANCE.getPropertyWithName("sharing.folder")
                 + hash;
         Log.d(TAG, "Filepath is: " + filePath);
+        return filePath;
+    }
+
+    /**
+     * Makes a stored BO visible to the phone and returns a String
+     * representation of the related meta-data.
+     *
+     * @param io        The Information Object describing the file data
+     * @param filePath  Where the BO is stored
+     * @return          Returns a String representation of the meta data.
+     */
+    private String describeBO(InformationObject io, String filePath) {
+
+        // Store the content type of the requested BO
+        String contentType = io.getIdentifier().getIdentifierLabel(
+                SailDefinedLabelName.CONTENT_TYPE.getLabelName())
+                .getLabelValue();
 
-        // Write it to file
-        try {
-            FileUtils.writeByteArrayToFile(new File(filePath), fileData);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         makeFileVisibleToPhone(filePath, contentType);
 
         // Make a new metadata to pass along the content_type and filepath
@@ -244,6 +247,15 @@ public class BOResource extends LisaServerResource {
         return io;
     }
 
+    /**
+     * Forgets the cached locators of the requested BO after a failed transfer,
+     * so that the next request asks the NRS for fresh ones.
+     */
+    private void invalidateLocators() {
+        MainApplication.getStaticInjector().getInstance(NameResolutionService.class)
+                .invalidateLocators(mHashAlgorithm, mHashValue);
+    }
+
     /**
      * Creates the folder that contains the files to be shared with other phones.
      */
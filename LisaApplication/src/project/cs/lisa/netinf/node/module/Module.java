@@ -44,10 +44,13 @@ import netinf.node.transfer.TransferController;
 import netinf.node.transfer.impl.TransferControllerImpl;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.http.client.HttpClient;
 
 import project.cs.lisa.netinf.node.access.rest.RESTAccessServer;
 import project.cs.lisa.netinf.node.resolution.LocalResolutionService;
+import project.cs.lisa.netinf.node.resolution.LocatorCache;
 import project.cs.lisa.netinf.node.resolution.NameResolutionService;
+import project.cs.lisa.util.HttpClientFactory;
 import project.cs.lisa.util.UProperties;
 import project.cs.lisa.util.database.IODatabase;
 import project.cs.lisa.util.database.IODatabaseFactory;
@@ -57,6 +60,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.assistedinject.FactoryProvider;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 
 public class Module extends AbstractModule  {
@@ -101,6 +105,18 @@ public class Module extends AbstractModule  {
 
         Log.d(TAG, "Binding 9");
         bind(IODatabaseFactory.class).toProvider(FactoryProvider.newFactory(IODatabaseFactory.class, IODatabase.class));
+
+        // One local resolution service, so the whole node shares one database connection
+        Log.d(TAG, "Binding 10");
+        bind(LocalResolutionService.class).in(Singleton.class);
+
+        // One name resolution service, so all requests share its bounded request pool
+        Log.d(TAG, "Binding 11");
+        bind(NameResolutionService.class).in(Singleton.class);
+
+        // One locator cache, shared by the name resolution service and the transfers
+        Log.d(TAG, "Binding 12");
+        bind(LocatorCache.class).in(Singleton.class);
     }
 
     /**
@@ -123,4 +139,21 @@ public class Module extends AbstractModule  {
 
         return (ResolutionService[]) ArrayUtils.addAll(nameResolutionService, localResolutionService);
     }
+
+    /**
+     * Provides the HTTP client shared by all requests to the NRS, so that
+     * connections are pooled and kept alive between requests.
+     *
+     * @param maxTotal      The maximum number of open connections
+     * @param maxPerRoute   The maximum number of open connections to one host
+     * @param keepAlive     Seconds an idle connection is kept open
+     * @return              The shared HTTP client
+     */
+    @Singleton
+    @Provides
+    HttpClient provideHttpClient(@Named("http.pool.max") int maxTotal,
+            @Named("http.pool.max.per.route") int maxPerRoute,
+            @Named("http.pool.keepalive") int keepAlive) {
+        return HttpClientFactory.createPooledClient(maxTotal, maxPerRoute, keepAlive);
+    }
 }
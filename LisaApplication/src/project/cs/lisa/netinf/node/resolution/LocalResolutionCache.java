@@ -0,0 +1,215 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.netinf.node.resolution;
+
+import java.util.Collection;
+import java.util.Map;
+
+import netinf.common.datamodel.InformationObject;
+import project.cs.lisa.search.SearchResult;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * A bounded in-memory cache in front of the local database. It maps hashes
+ * to information objects and urls to search results, and evicts the least
+ * recently used entries once the configured size is reached.
+ *
+ * Entry sizes are estimated from the serialized objects when they are
+ * cached, so the bound is roughly the number of bytes held.
+ *
+ */
+public class LocalResolutionCache {
+
+	/** The debug tag. */
+	private static final String TAG = "LocalResolutionCache";
+
+	/** Estimated fixed overhead of one entry in bytes. */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	/** Cached information objects by hash. */
+	private final LruCache<String, SizedObject> mObjects;
+
+	/** Cached search results by url. */
+	private final LruCache<String, SearchResult> mSearchResults;
+
+	/**
+	 * Creates a cache. Half of the size is used for information objects
+	 * and half for search results.
+	 *
+	 * @param maxSizeKb	The maximum size of the cache in kilobytes
+	 */
+	public LocalResolutionCache(int maxSizeKb) {
+		int half = Math.max(1, maxSizeKb * 1024 / 2);
+
+		mObjects = new LruCache<String, SizedObject>(half) {
+			@Override
+			protected int sizeOf(String hash, SizedObject entry) {
+				return entry.mSize;
+			}
+		};
+
+		mSearchResults = new LruCache<String, SearchResult>(half) {
+			@Override
+			protected int sizeOf(String url, SearchResult result) {
+				return ENTRY_OVERHEAD + 2 * (url.length() + result.getHash().length()
+						+ result.getMetaData().convertToString().length());
+			}
+		};
+	}
+
+	/**
+	 * Returns a copy of the cached information object of a hash.
+	 * Copies are returned since callers may modify the object.
+	 *
+	 * @param hash	The hash of the information object
+	 * @return		The information object, or null if it is not cached
+	 */
+	public InformationObject getIO(String hash) {
+		SizedObject entry = mObjects.get(hash);
+		return entry == null ? null : (InformationObject) entry.mObject.clone();
+	}
+
+	/**
+	 * Caches an information object.
+	 *
+	 * @param hash	The hash of the information object
+	 * @param io	The information object
+	 */
+	public void putIO(String hash, InformationObject io) {
+		int size = ENTRY_OVERHEAD + 2 * hash.length() + io.serializeToBytes().length;
+		mObjects.put(hash, new SizedObject((InformationObject) io.clone(), size));
+	}
+
+	/**
+	 * Returns the cached search result of a url. The result is shared with
+	 * the cache, so callers must not modify it.
+	 *
+	 * @param url	The url that was searched for
+	 * @return		The search result, or null if it is not cached
+	 */
+	public SearchResult getSearchResult(String url) {
+		return mSearchResults.get(url);
+	}
+
+	/**
+	 * Caches a search result.
+	 *
+	 * @param url		The url that was searched for
+	 * @param result	The search result
+	 */
+	public void putSearchResult(String url, SearchResult result) {
+		mSearchResults.put(url, result);
+	}
+
+	/**
+	 * Removes everything cached about a stored object that was added or
+	 * changed: the object itself and the search results of its urls, which
+	 * may now resolve to it.
+	 *
+	 * @param hash	The hash of the information object
+	 * @param urls	The urls of the information object
+	 */
+	public void invalidateOnPut(String hash, Collection<String> urls) {
+		mObjects.remove(hash);
+		for (String url : urls) {
+			mSearchResults.remove(url);
+		}
+	}
+
+	/**
+	 * Removes everything cached about a deleted object.
+	 *
+	 * @param hash	The hash of the information object
+	 */
+	public void invalidateOnDelete(String hash) {
+		mObjects.remove(hash);
+		for (Map.Entry<String, SearchResult> entry : mSearchResults.snapshot().entrySet()) {
+			if (hash.equals(entry.getValue().getHash())) {
+				mSearchResults.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		mObjects.evictAll();
+		mSearchResults.evictAll();
+	}
+
+	/**
+	 * Returns the number of lookups answered by the cache.
+	 *
+	 * @return	The number of hits
+	 */
+	public int getHitCount() {
+		return mObjects.hitCount() + mSearchResults.hitCount();
+	}
+
+	/**
+	 * Returns the number of lookups that had to go to the database.
+	 *
+	 * @return	The number of misses
+	 */
+	public int getMissCount() {
+		return mObjects.missCount() + mSearchResults.missCount();
+	}
+
+	/**
+	 * Logs the hit and miss counters.
+	 */
+	public void logStatistics() {
+		Log.d(TAG, "Objects: " + mObjects.toString() + ", search results: "
+				+ mSearchResults.toString());
+	}
+
+	/**
+	 * A cached information object with its size, which is estimated once
+	 * when it is cached.
+	 */
+	private static final class SizedObject {
+
+		/** The information object. */
+		private final InformationObject mObject;
+
+		/** The estimated size in bytes. */
+		private final int mSize;
+
+		/**
+		 * Creates an entry.
+		 *
+		 * @param object	The information object
+		 * @param size		The estimated size in bytes
+		 */
+		private SizedObject(InformationObject object, int size) {
+			mObject = object;
+			mSize = size;
+		}
+	}
+}
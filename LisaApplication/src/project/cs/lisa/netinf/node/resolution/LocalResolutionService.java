@@ -26,22 +26,32 @@
  */
 package project.cs.lisa.netinf.node.resolution;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import netinf.common.datamodel.DatamodelFactory;
 import netinf.common.datamodel.Identifier;
+import netinf.common.datamodel.IdentifierLabel;
 import netinf.common.datamodel.InformationObject;
 import netinf.common.datamodel.identity.ResolutionServiceIdentityObject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import project.cs.lisa.application.MainApplication;
 import project.cs.lisa.exceptions.DatabaseException;
+import project.cs.lisa.metadata.MetadataParser;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
 import project.cs.lisa.search.SearchResult;
+import project.cs.lisa.util.UProperties;
 import project.cs.lisa.util.database.IODatabase;
 import project.cs.lisa.util.database.IODatabaseFactory;
 import android.util.Log;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * A local resolution service that provides access to the local
@@ -67,18 +77,40 @@ public class LocalResolutionService
 	/** Datamodel Factory. **/
 	private DatamodelFactory mDatamodelFactory;
 
+	/** Cache in front of the database. */
+	private LocalResolutionCache mCache;
+
+	/** Meta-data label for the url. */
+	private String mUrlLabel;
+
 	/**
 	 * Creates a new local resolution service.
 	 *
 	 * @param databaseFactory	The factory used for creating the database.
 	 * @param datamodelFactory	The factory used fo creating information objects
+	 * @param cacheSize			The size of the cache in front of the database in kilobytes
 	 */
 	@Inject
 	public LocalResolutionService(IODatabaseFactory databaseFactory,
-			DatamodelFactory datamodelFactory) {
+			DatamodelFactory datamodelFactory,
+			@Named("local.cache.size") int cacheSize) {
 		mDatabaseFactory = databaseFactory;
 		mDatabase = mDatabaseFactory.create(MainApplication.getAppContext());
 		mDatamodelFactory = datamodelFactory;
+		mCache = new LocalResolutionCache(cacheSize);
+		mUrlLabel = UProperties.INSTANCE.getPropertyWithName("metadata.url");
+
+		// Open the database now, so its key filter is built at startup
+		Log.d(TAG, "Key filter: " + mDatabase.getKeyFilter());
+	}
+
+	/**
+	 * Returns the cache in front of the database.
+	 *
+	 * @return	The cache
+	 */
+	public LocalResolutionCache getCache() {
+		return mCache;
 	}
 
 	@Override
@@ -87,6 +119,7 @@ public class LocalResolutionService
 		String hash = identifier.getIdentifierLabel(
 				SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
 		mDatabase.deleteIO(hash);
+		mCache.invalidateOnDelete(hash);
 	}
 
 	@Override
@@ -100,7 +133,11 @@ public class LocalResolutionService
 		String hash = identifier.getIdentifierLabel(
 				SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
 
-		InformationObject io = null;
+		InformationObject io = mCache.getIO(hash);
+		if (io != null) {
+			return io;
+		}
+
 		try {
 			io = mDatabase.getIO(hash);
 		} catch (DatabaseException e) {
@@ -109,6 +146,7 @@ public class LocalResolutionService
 			return null;
 		}
 
+		mCache.putIO(hash, io);
 		return io;
 	}
 
@@ -119,13 +157,16 @@ public class LocalResolutionService
 		// Searching within the database will expect only one keyword: the url
 		List<SearchResult> results = new LinkedList<SearchResult>();
 		String url = keywords.get(0);
-		SearchResult result = null;
+		SearchResult result = mCache.getSearchResult(url);
 
-		try {
-			result = mDatabase.searchIO(url);
-		} catch (DatabaseException e) {
-			Log.e(TAG, "No entry found that corresponds to the url: " + url);
-			return results;
+		if (result == null) {
+			try {
+				result = mDatabase.searchIO(url);
+			} catch (DatabaseException e) {
+				Log.e(TAG, "No entry found that corresponds to the url: " + url);
+				return results;
+			}
+			mCache.putSearchResult(url, result);
 		}
 
 		results.add(result);
@@ -141,6 +182,25 @@ public class LocalResolutionService
 		} catch (DatabaseException e) {
 			Log.e(TAG, "Failed adding the information object into the database.");
 		}
+		mCache.invalidateOnPut(getHash(io), getUrls(io));
+	}
+
+	/**
+	 * Stores several information objects at once, in a single
+	 * database transaction.
+	 *
+	 * @param ios	The information objects to store
+	 */
+	public void putAll(Collection<InformationObject> ios) {
+		Log.d(TAG, "putAll() " + ios.size() + " objects");
+		try {
+			mDatabase.addIOs(ios);
+		} catch (DatabaseException e) {
+			Log.e(TAG, "Failed adding the information objects into the database.");
+		}
+		for (InformationObject io : ios) {
+			mCache.invalidateOnPut(getHash(io), getUrls(io));
+		}
 	}
 
 	@Override
@@ -153,6 +213,44 @@ public class LocalResolutionService
 	    return identity;
 	}
 
+	/**
+	 * Returns the hash of an information object.
+	 *
+	 * @param io	The information object
+	 * @return		The hash
+	 */
+	private String getHash(InformationObject io) {
+		return io.getIdentifier().getIdentifierLabel(
+				SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
+	}
+
+	/**
+	 * Returns the urls in the meta-data of an information object.
+	 *
+	 * @param io	The information object
+	 * @return		The urls, or an empty list if the meta-data cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> getUrls(InformationObject io) {
+		IdentifierLabel metadata = io.getIdentifier().getIdentifierLabel(
+				SailDefinedLabelName.META_DATA.getLabelName());
+		if (metadata == null) {
+			return Collections.emptyList();
+		}
+		try {
+			Object urls = MetadataParser.toMap(
+					new JSONObject(metadata.getLabelValue())).get(mUrlLabel);
+			if (urls instanceof List) {
+				return (List<String>) urls;
+			} else if (urls instanceof String) {
+				return Collections.singletonList((String) urls);
+			}
+		} catch (JSONException e) {
+			Log.w(TAG, "Could not read the urls of " + getHash(io));
+		}
+		return Collections.emptyList();
+	}
+
 	@Override
 	public List<Identifier> getAllVersions(Identifier arg0) {
 		// TODO Auto-generated method stub
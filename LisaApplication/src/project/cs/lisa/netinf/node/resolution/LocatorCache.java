@@ -0,0 +1,234 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.netinf.node.resolution;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import netinf.common.datamodel.InformationObject;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Caches the locators the NRS returned for a hash, so repeated retrievals
+ * of the same object skip the round trip to the NRS.
+ *
+ * An entry is fresh for a time to live after it was fetched. After that it
+ * is stale: it is still served, but the caller should refresh it in the
+ * background, see {@link #beginRefresh(String)}. Entries that have been
+ * stale for too long are dropped. The least recently used entries are
+ * evicted once the cache is full, and the whole cache can be cleared when
+ * memory is low.
+ *
+ */
+public class LocatorCache {
+
+	/** The debug tag. */
+	private static final String TAG = "LocatorCache";
+
+	/** Milliseconds per second. */
+	private static final long MILLIS = 1000;
+
+	/** The cached locators by hashAlg;hash. */
+	private final LruCache<String, Entry> mEntries;
+
+	/** The keys whose entries are being refreshed. */
+	private final Set<String> mRefreshing = new HashSet<String>();
+
+	/** Milliseconds an entry is fresh. */
+	private final long mTimeToLive;
+
+	/** Milliseconds an entry may be served after it became stale. */
+	private final long mMaxStale;
+
+	/** The number of lookups that found a fresh entry. */
+	private int mFreshHits;
+
+	/** The number of lookups that found a stale entry. */
+	private int mStaleHits;
+
+	/** The number of lookups that found nothing usable. */
+	private int mMisses;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxEntries		The maximum number of cached hashes
+	 * @param ttlSeconds		Seconds an entry is fresh
+	 * @param maxStaleSeconds	Seconds a stale entry may still be served
+	 */
+	@Inject
+	public LocatorCache(@Named("nrs.locator.entries") int maxEntries,
+			@Named("nrs.locator.ttl") int ttlSeconds,
+			@Named("nrs.locator.stale") int maxStaleSeconds) {
+		mEntries = new LruCache<String, Entry>(Math.max(1, maxEntries));
+		mTimeToLive = ttlSeconds * MILLIS;
+		mMaxStale = maxStaleSeconds * MILLIS;
+	}
+
+	/**
+	 * Returns a copy of the cached information object for a key, as long as
+	 * it is fresh or has not been stale for too long.
+	 *
+	 * @param key	The hashAlg;hash of the object
+	 * @return		A copy of the cached object, or null
+	 */
+	public synchronized InformationObject get(String key) {
+		Entry entry = mEntries.get(key);
+		if (entry == null) {
+			mMisses++;
+			return null;
+		}
+		long age = now() - entry.mFetched;
+		if (age > mTimeToLive + mMaxStale) {
+			Log.d(TAG, "Dropping locators of " + key + ", " + age + " ms old");
+			mEntries.remove(key);
+			mMisses++;
+			return null;
+		}
+		if (age > mTimeToLive) {
+			mStaleHits++;
+		} else {
+			mFreshHits++;
+		}
+		return (InformationObject) entry.mObject.clone();
+	}
+
+	/**
+	 * Caches the information object fetched for a key, replacing any older
+	 * entry, and ends a refresh of it.
+	 *
+	 * @param key	The hashAlg;hash of the object
+	 * @param io	The object with its locators
+	 */
+	public synchronized void put(String key, InformationObject io) {
+		mEntries.put(key, new Entry((InformationObject) io.clone(), now()));
+		mRefreshing.remove(key);
+	}
+
+	/**
+	 * Starts a refresh of a stale entry, unless the entry is fresh or
+	 * another refresh of it is already running. A caller that gets true
+	 * must call {@link #endRefresh(String)} or {@link #put(String, InformationObject)}
+	 * when the refresh is done.
+	 *
+	 * @param key	The hashAlg;hash of the object
+	 * @return		True if the caller should refresh the entry
+	 */
+	public synchronized boolean beginRefresh(String key) {
+		Entry entry = mEntries.get(key);
+		if (entry == null || now() - entry.mFetched <= mTimeToLive) {
+			return false;
+		}
+		return mRefreshing.add(key);
+	}
+
+	/**
+	 * Ends a refresh, whether or not it succeeded.
+	 *
+	 * @param key	The hashAlg;hash of the object
+	 */
+	public synchronized void endRefresh(String key) {
+		mRefreshing.remove(key);
+	}
+
+	/**
+	 * Removes the entry of a key, for example after a transfer from one of
+	 * its locators failed.
+	 *
+	 * @param key	The hashAlg;hash of the object
+	 */
+	public synchronized void invalidate(String key) {
+		if (mEntries.remove(key) != null) {
+			Log.d(TAG, "Invalidated locators of " + key);
+		}
+	}
+
+	/**
+	 * Removes all entries, for example when memory is low.
+	 */
+	public synchronized void clear() {
+		Log.d(TAG, "Clearing " + mEntries.size() + " entries");
+		mEntries.evictAll();
+	}
+
+	/**
+	 * Returns the number of cached entries.
+	 *
+	 * @return	The number of entries
+	 */
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Logs the hit and miss counts.
+	 */
+	public synchronized void logStatistics() {
+		Log.d(TAG, "entries=" + mEntries.size()
+				+ ", fresh hits=" + mFreshHits
+				+ ", stale hits=" + mStaleHits
+				+ ", misses=" + mMisses);
+	}
+
+	/**
+	 * Returns the current time in milliseconds, from a clock that does not
+	 * jump when the wall clock is changed.
+	 *
+	 * @return	The current time
+	 */
+	protected long now() {
+		return SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * A cached information object and when it was fetched.
+	 */
+	private static class Entry {
+
+		/** The cached object. */
+		private final InformationObject mObject;
+
+		/** When the object was fetched. */
+		private final long mFetched;
+
+		/**
+		 * Creates an entry.
+		 *
+		 * @param io		The cached object
+		 * @param fetched	When the object was fetched
+		 */
+		public Entry(InformationObject io, long fetched) {
+			mObject = io;
+			mFetched = fetched;
+		}
+	}
+}
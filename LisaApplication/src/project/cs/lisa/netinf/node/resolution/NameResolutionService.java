@@ -26,19 +26,41 @@
  */
 package project.cs.lisa.netinf.node.resolution;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import netinf.common.datamodel.DatamodelFactory;
 import netinf.common.datamodel.DefinedAttributePurpose;
@@ -55,24 +77,29 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.message.BasicNameValuePair;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 import project.cs.lisa.exceptions.InvalidResponseException;
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.hash.Hash;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedAttributeIdentification;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import project.cs.lisa.util.CountingEntity;
+import project.cs.lisa.util.HttpClientFactory;
+import project.cs.lisa.util.SingleFlight;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.inject.Inject;
@@ -104,26 +131,67 @@ implements ResolutionService {
     private final DatamodelFactory mDatamodelFactory;
     /** Random number generator used to create message IDs. **/
     private final Random mRandomGenerator = new Random();
-    /** HTTP Client. **/
-    private HttpClient mClient;
+    /** HTTP Client, shared with the rest of the node. **/
+    private final HttpClient mClient;
+    /** Size of the buffers used to stream received data to disk. **/
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+    /** Suffix of files that are still being received. **/
+    private static final String PARTIAL_SUFFIX = ".part";
+    /** The folder received data is stored in. **/
+    private final String mSharedFolder;
+    /** Whether publishes are sent with chunked transfer encoding. **/
+    private final boolean mChunkedPublish;
+    /** Gets in flight, so concurrent gets for the same hash share one request. **/
+    private final SingleFlight<InformationObject> mInFlightGets =
+            new SingleFlight<InformationObject>() {
+                @Override
+                protected InformationObject share(InformationObject io) {
+                    return io == null ? null : (InformationObject) io.clone();
+                }
+            };
+    /** Locators recently returned by the NRS. **/
+    private final LocatorCache mLocatorCache;
+    /** Path of batch NetInf GET requests. **/
+    private static final String BATCH_GET_PATH = "/netinfproto/getbatch";
+    /** Whether the NRS answers batch requests, until it is seen not to. **/
+    private volatile boolean mBatchSupported = true;
+    /** Seconds an idle request thread is kept. **/
+    private static final int THREAD_KEEP_ALIVE = 30;
+    /** Runs asynchronous requests, bounded in threads and queued requests. **/
+    private final ThreadPoolExecutor mExecutor;
 
     /**
      * Creates a new Name Resolution Service that communicates with a specific NRS.
      * @param host                 The NRS IP Address
      * @param port                 The NRS Port
+     * @param maxInFlight          The maximum number of asynchronous requests running at once
+     * @param maxQueued            The maximum number of asynchronous requests waiting to run
+     * @param sharedFolder         The folder received data is stored in, relative to external storage
+     * @param chunkedPublish       Whether publishes are sent with chunked transfer encoding
      * @param datamodelFactory     Creates different objects necessary in the NetInf model
+     * @param client               The pooled HTTP client used to reach the NRS
+     * @param locatorCache         Caches the locators returned by the NRS
      */
     @Inject
     public NameResolutionService(
             @Named("nrs.http.host") String host,
             @Named("nrs.http.port") int port,
-            DatamodelFactory datamodelFactory) {
-        // Setup HTTP client
-        HttpParams params = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
-        HttpConnectionParams.setSoTimeout(params, TIMEOUT);
-        mClient = new DefaultHttpClient(params);
-
+            @Named("nrs.async.threads") int maxInFlight,
+            @Named("nrs.async.queue") int maxQueued,
+            @Named("sharing.folder") String sharedFolder,
+            @Named("nrs.publish.chunked") boolean chunkedPublish,
+            DatamodelFactory datamodelFactory,
+            HttpClient client,
+            LocatorCache locatorCache) {
+        mClient = client;
+        mLocatorCache = locatorCache;
+        mChunkedPublish = chunkedPublish;
+        mSharedFolder = Environment.getExternalStorageDirectory() + sharedFolder;
+        mExecutor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued),
+                new RequestThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
         mHost = host;
         mPort = port;
         mDatamodelFactory = datamodelFactory;
@@ -316,6 +384,7 @@ implements ResolutionService {
         Log.d(TAG, "object = " + object);
         if (!(object instanceof JSONObject)) {
             Log.d(TAG, "Metadata NOT added.");
+            return;
         }
         JSONObject metadata = (JSONObject) object;
         Log.d(TAG, "metadata = " + metadata.toJSONString());
@@ -355,16 +424,36 @@ implements ResolutionService {
 
     private InformationObject readIo(Identifier identifier, HttpResponse response)
             throws InvalidResponseException {
-        InformationObject io = mDatamodelFactory.createInformationObject();
-        io.setIdentifier(identifier);
         String jsonString = readJson(response);
         JSONObject json = parseJson(jsonString);
+        return createIo(identifier, json);
+    }
+
+    /**
+     * Creates an InformationObject from an identifier and the JSON the NRS returned for it.
+     * @param identifier       The identifier, which gets the content-type and metadata added
+     * @param json             The JSON describing the object
+     * @return                 The InformationObject with its locators
+     */
+    private InformationObject createIo(Identifier identifier, JSONObject json) {
+        InformationObject io = mDatamodelFactory.createInformationObject();
+        io.setIdentifier(identifier);
         addContentType(identifier, json);
         addMetadata(identifier, json);
         addLocators(io, json);
         return io;
     }
 
+    /**
+     * Reads an InformationObject and its data from a multipart NetInf GET response.
+     * The parts may come in any order. The data is streamed to the shared folder
+     * and its hash is checked while it is written.
+     * @param identifier                   The identifier used for the NetInf GET
+     * @param response                     The HTTP response
+     * @return                             The InformationObject with a file path locator
+     * @throws InvalidResponseException    In case the response is malformed or the data
+     *                                     does not match the hash
+     */
     private InformationObject readIoAndFile(Identifier identifier,
             HttpResponse response) throws InvalidResponseException {
 
@@ -381,55 +470,162 @@ implements ResolutionService {
                     + ", expected to start with \"multipart/form-data\"");
         }
 
+        String contentType = response.getEntity().getContentType().getValue();
+        Log.d(TAG, "contentType = " + contentType);
+        byte[] boundary = getBoundary(contentType);
+
+        JSONObject json = null;
+        File file = null;
+        boolean success = false;
         try {
+            @SuppressWarnings("deprecation")
+            MultipartStream multipartStream = new MultipartStream(
+                    response.getEntity().getContent(), boundary, FILE_BUFFER_SIZE);
+
+            boolean nextPart = multipartStream.skipPreamble();
+            while (nextPart) {
+                String headers = multipartStream.readHeaders();
+                Log.d(TAG, "part headers = " + headers);
+                if (isJsonPart(headers)) {
+                    ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                    multipartStream.readBodyData(jsonStream);
+                    json = parseJson(jsonStream.toString("UTF-8"));
+                } else if (file == null) {
+                    file = readFile(identifier, multipartStream);
+                } else {
+                    Log.d(TAG, "Discarding unexpected part");
+                    multipartStream.discardBodyData();
+                }
+                nextPart = multipartStream.readBoundary();
+            }
+
+            if (json == null) {
+                throw new InvalidResponseException("No JSON part in response.");
+            } else if (file == null) {
+                throw new InvalidResponseException("No data part in response.");
+            }
+            success = true;
+
+        } catch (IOException e) {
+            throw new InvalidResponseException("Failed to read InformationObject from response", e);
+        } finally {
+            if (!success && file != null && !file.delete()) {
+                Log.e(TAG, "Failed to delete " + file);
+            }
+        }
 
-            // Create IO
-            InformationObject io = mDatamodelFactory.createInformationObject();
-            io.setIdentifier(identifier);
+        // Create IO
+        InformationObject io = mDatamodelFactory.createInformationObject();
+        io.setIdentifier(identifier);
+        addContentType(identifier, json);
+        addMetadata(identifier, json);
+        addLocators(io, json);
 
-            Log.d(TAG, "name: " + response.getHeaders("Content-Type")[0].getName());
-            Log.d(TAG, "value: " + response.getHeaders("Content-Type")[0].getValue());
-            String contentType = response.getHeaders("Content-Type")[0].getValue();
-            byte[] boundary = (contentType.substring(contentType.indexOf("boundary=") + 9)).getBytes();
-            Log.d(TAG, "boundary = " + Arrays.toString(boundary));
+        // Add file path locator
+        Attribute locator = mDatamodelFactory.createAttribute();
+        locator.setAttributePurpose(DefinedAttributePurpose.LOCATOR_ATTRIBUTE.toString());
+        locator.setIdentification(SailDefinedAttributeIdentification.FILE_PATH.getURI());
+        locator.setValue(file.getAbsoluteFile());
+        io.addAttribute(locator);
 
-            @SuppressWarnings("deprecation")
-            MultipartStream multipartStream =
-                    new MultipartStream(response.getEntity().getContent(), boundary);
-
-            multipartStream.skipPreamble();
-            // TODO Dependant on order used by NRS
-            // Read JSON
-            ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
-            multipartStream.readHeaders();
-            multipartStream.readBodyData(jsonStream);
-            multipartStream.readBoundary();
-            JSONObject jsonObject = parseJson(jsonStream.toString());
-            jsonStream.close();
-            addContentType(io.getIdentifier(), jsonObject);
-            addMetadata(io.getIdentifier(), jsonObject);
-            addLocators(io, jsonObject);
-
-            File file = new File(Environment.getExternalStorageDirectory() + "/DCIM/Shared/" + getHash(io.getIdentifier()));
-            FileOutputStream fos = new FileOutputStream(file);
-            multipartStream.readHeaders();
-            multipartStream.readBodyData(fos);
-            fos.flush();
-            fos.close();
-
-            // Add file path locator
-            Attribute locator = mDatamodelFactory.createAttribute();
-            locator.setAttributePurpose(DefinedAttributePurpose.LOCATOR_ATTRIBUTE.toString());
-            locator.setIdentification(SailDefinedAttributeIdentification.FILE_PATH.getURI());
-            locator.setValue(file.getAbsoluteFile());
-            io.addAttribute(locator);
+        return io;
+    }
 
-            return io;
+    /**
+     * Streams the data part of a multipart response into the shared folder.
+     * The data is hashed as it is written, and only moved to its final name
+     * once it is complete and, for SHA-256 identifiers, matches the hash.
+     * @param identifier                   The identifier used for the NetInf GET
+     * @param multipartStream              The stream, positioned at the data part's body
+     * @return                             The file holding the data
+     * @throws IOException                 In case reading or writing the data failed
+     * @throws InvalidResponseException    In case the data does not match the hash
+     */
+    private File readFile(Identifier identifier, MultipartStream multipartStream)
+            throws IOException, InvalidResponseException {
+        Log.d(TAG, "readFile()");
+
+        String hash = getHash(identifier);
+        File folder = new File(mSharedFolder);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Failed to create " + folder);
+        }
+        File file = new File(folder, hash);
+        File partial = new File(folder, hash + PARTIAL_SUFFIX);
 
+        MessageDigest digest = Hash.createDigest();
+        OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                new FileOutputStream(partial), FILE_BUFFER_SIZE), digest);
+        try {
+            long length = multipartStream.readBodyData(out);
+            Log.d(TAG, "Read " + length + " bytes into " + partial);
         } catch (IOException e) {
-            throw new InvalidResponseException("Failed to read InformationObject from response", e);
+            out.close();
+            partial.delete();
+            throw e;
         }
+        out.close();
 
+        if (Hash.ALGORITHM.equalsIgnoreCase(getHashAlg(identifier))
+                && !ContentHasher.INSTANCE.matchesHash(Hash.encodeDigest(digest.digest(), 0), hash)) {
+            partial.delete();
+            throw new InvalidResponseException("The received data does not match the hash " + hash);
+        }
+
+        if (file.exists() && !file.delete()) {
+            partial.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Failed to move " + partial + " to " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Extracts the boundary from a multipart content-type.
+     * @param contentType                  The content-type
+     * @return                             The boundary
+     * @throws InvalidResponseException    In case the content-type has no boundary
+     */
+    private byte[] getBoundary(String contentType) throws InvalidResponseException {
+        int start = contentType.indexOf("boundary=");
+        if (start < 0) {
+            throw new InvalidResponseException("No boundary in Content-Type " + contentType);
+        }
+        String boundary = contentType.substring(start + "boundary=".length());
+        int end = boundary.indexOf(';');
+        if (end >= 0) {
+            boundary = boundary.substring(0, end);
+        }
+        boundary = boundary.trim();
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        Log.d(TAG, "boundary = " + boundary);
+        try {
+            return boundary.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new InvalidResponseException("Unable to encode boundary.", e);
+        }
+    }
+
+    /**
+     * Decides whether a part of a multipart response holds the JSON description.
+     * A part is JSON if its content-type says so. A part without a content-type
+     * is a plain form field, and so JSON, unless it carries a file name.
+     * @param headers      The headers of the part
+     * @return             True if the part holds JSON, false if it holds data
+     */
+    private boolean isJsonPart(String headers) {
+        String lowerCase = headers.toLowerCase(Locale.US);
+        for (String header : lowerCase.split("\r?\n")) {
+            if (header.startsWith("content-type:")) {
+                return header.contains("json");
+            }
+        }
+        return !lowerCase.contains("filename=");
     }
 
     /**
@@ -467,6 +663,10 @@ implements ResolutionService {
 
     /**
      * Performs a NetInf GET request using the HTTP convergence layer.
+     * Locators returned by the NRS are cached, and stale ones are served
+     * while they are refreshed in the background. Concurrent gets for the
+     * same hash share one request to the NRS, and each caller gets its own
+     * copy of the result.
      * @param identifier       Identifier describing the InformationObject to get
      * @return                 The InformationObject resulting from the NetInf GET
      *                         or null if the get failed.
@@ -474,16 +674,255 @@ implements ResolutionService {
     @Override
     public InformationObject get(Identifier identifier) {
         Log.d(TAG, "get()");
+        String key = getHashAlg(identifier) + ";" + getHash(identifier);
+
+        InformationObject cached = mLocatorCache.get(key);
+        if (cached != null) {
+            Log.d(TAG, "get() found cached locators for " + key);
+            if (mLocatorCache.beginRefresh(key)) {
+                refresh((Identifier) identifier.clone(), key);
+            }
+            return cached;
+        }
+        return fetch(identifier, key);
+    }
+
+    /**
+     * Gets an InformationObject from the NRS and caches its locators.
+     * Concurrent fetches of the same key share one request.
+     * @param identifier       Identifier describing the InformationObject to get
+     * @param key              The hashAlg;hash of the identifier
+     * @return                 The InformationObject resulting from the NetInf GET
+     *                         or null if the get failed.
+     */
+    private InformationObject fetch(final Identifier identifier, final String key) {
+        try {
+            return mInFlightGets.execute(key, new Callable<InformationObject>() {
+                @Override
+                public InformationObject call() {
+                    InformationObject io = requestIo(identifier);
+                    // Only locators are cached, data is stored in the shared folder
+                    if (io != null && io.getSingleAttribute(
+                            SailDefinedAttributeIdentification.FILE_PATH.getURI()) == null) {
+                        mLocatorCache.put(key, io);
+                    }
+                    return io;
+                }
+            });
+        } catch (InterruptedException e) {
+            Log.e(TAG, "get() interrupted while waiting for " + key);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "get() failed for " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * Refreshes stale cached locators in the background.
+     * @param identifier       Identifier describing the InformationObject to get
+     * @param key              The hashAlg;hash of the identifier
+     */
+    private void refresh(final Identifier identifier, final String key) {
+        Log.d(TAG, "Refreshing stale locators for " + key);
+        submit(new Callable<InformationObject>() {
+            @Override
+            public InformationObject call() {
+                return fetch(identifier, key);
+            }
+        }, new ResolutionCallback<InformationObject>() {
+            @Override
+            public void onSuccess(InformationObject io) {
+                mLocatorCache.endRefresh(key);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                mLocatorCache.endRefresh(key);
+            }
+        });
+    }
+
+    /**
+     * Forgets the cached locators of an identifier, for example because a
+     * transfer from them failed. The next get asks the NRS again.
+     * @param hashAlg          The hash algorithm
+     * @param hash             The hash
+     */
+    public void invalidateLocators(String hashAlg, String hash) {
+        mLocatorCache.invalidate(hashAlg + ";" + hash);
+    }
+
+    /**
+     * Performs NetInf GETs for several identifiers at once. Cached locators
+     * are used where possible, and the rest are resolved in one batch request
+     * to the NRS. If the NRS does not support batch requests, they are
+     * resolved with single GETs in parallel instead.
+     * @param identifiers      Identifiers describing the InformationObjects to get
+     * @return                 The InformationObjects in the order of the identifiers,
+     *                         with null for those that could not be resolved
+     */
+    public List<InformationObject> getAll(List<Identifier> identifiers) {
+        Log.d(TAG, "getAll(), " + identifiers.size() + " identifiers");
+        InformationObject[] results = new InformationObject[identifiers.size()];
+
+        // Positions of the identifiers not in the cache, by ni URI
+        Map<String, List<Integer>> missing = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < identifiers.size(); i++) {
+            Identifier identifier = identifiers.get(i);
+            String key = getHashAlg(identifier) + ";" + getHash(identifier);
+            results[i] = mLocatorCache.get(key);
+            if (results[i] == null) {
+                String uri = "ni:///" + key;
+                List<Integer> positions = missing.get(uri);
+                if (positions == null) {
+                    positions = new ArrayList<Integer>();
+                    missing.put(uri, positions);
+                }
+                positions.add(i);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return Arrays.asList(results);
+        }
+        if (missing.size() == 1 || !mBatchSupported
+                || !requestBatch(identifiers, missing, results)) {
+            getInParallel(identifiers, missing, results);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Resolves identifiers with one batch request to the NRS. The NRS
+     * streams back one JSON object per line, each naming the ni URI it
+     * describes. URIs the NRS does not know are left null.
+     * @param identifiers      The identifiers
+     * @param missing          The positions of the identifiers to resolve, by ni URI
+     * @param results          Where the resolved InformationObjects are stored
+     * @return                 True if the batch request was answered,
+     *                         false if the identifiers have to be resolved in another way
+     */
+    private boolean requestBatch(List<Identifier> identifiers,
+            Map<String, List<Integer>> missing, InformationObject[] results) {
+        Log.d(TAG, "requestBatch(), " + missing.size() + " URIs");
+        HttpResponse response = null;
+        try {
+            HttpPost post = createBatchGet(missing.keySet());
+            HttpClientFactory.setTimeout(post, TIMEOUT);
+            response = mClient.execute(post);
+
+            int statusCode = response.getStatusLine().getStatusCode();
+            Log.d(TAG, "statusCode = " + statusCode);
+            switch (statusCode) {
+            case HttpStatus.SC_OK:
+                break;
+            case HttpStatus.SC_NOT_FOUND:
+            case HttpStatus.SC_METHOD_NOT_ALLOWED:
+            case HttpStatus.SC_NOT_IMPLEMENTED:
+                Log.d(TAG, "The NRS does not support batch requests");
+                mBatchSupported = false;
+                return false;
+            default:
+                return false;
+            }
+            if (response.getEntity() == null) {
+                return false;
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    response.getEntity().getContent(), "UTF-8"));
+            String line;
+            int resolved = 0;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                JSONObject json = parseJson(line);
+                List<Integer> positions = missing.get(json.get("ni"));
+                if (positions == null) {
+                    Log.d(TAG, "Ignoring unrequested " + json.get("ni"));
+                    continue;
+                }
+                Identifier identifier = (Identifier) identifiers.get(positions.get(0)).clone();
+                InformationObject io = createIo(identifier, json);
+                mLocatorCache.put(getHashAlg(identifier) + ";" + getHash(identifier), io);
+                for (int position : positions) {
+                    results[position] = (InformationObject) io.clone();
+                }
+                resolved++;
+            }
+            Log.d(TAG, "Batch resolved " + resolved + " of " + missing.size() + " URIs");
+            return true;
+
+        } catch (InvalidResponseException e) {
+            Log.e(TAG, "Invalid batch response", e);
+        } catch (IOException e) {
+            Log.e(TAG, "Batch request failed", e);
+        } finally {
+            HttpClientFactory.consume(response);
+        }
+        return false;
+    }
+
+    /**
+     * Resolves identifiers with single GETs run in parallel on the request pool.
+     * GETs the pool has no room for are run on the calling thread.
+     * @param identifiers      The identifiers
+     * @param missing          The positions of the identifiers to resolve, by ni URI
+     * @param results          Where the resolved InformationObjects are stored
+     */
+    private void getInParallel(List<Identifier> identifiers,
+            Map<String, List<Integer>> missing, InformationObject[] results) {
+        Log.d(TAG, "getInParallel(), " + missing.size() + " URIs");
+        Map<List<Integer>, Future<InformationObject>> futures =
+                new LinkedHashMap<List<Integer>, Future<InformationObject>>();
+        for (List<Integer> positions : missing.values()) {
+            futures.put(positions, getAsync(identifiers.get(positions.get(0)), null));
+        }
+
+        for (Map.Entry<List<Integer>, Future<InformationObject>> entry : futures.entrySet()) {
+            List<Integer> positions = entry.getKey();
+            InformationObject io = null;
+            try {
+                io = entry.getValue().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    io = get(identifiers.get(positions.get(0)));
+                } else {
+                    Log.e(TAG, "GET failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted waiting for GETs");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int position : positions) {
+                results[position] = io == null ? null : (InformationObject) io.clone();
+            }
+        }
+    }
+
+    /**
+     * Sends a NetInf GET request to the NRS.
+     * @param identifier       Identifier describing the InformationObject to get
+     * @return                 The InformationObject resulting from the NetInf GET
+     *                         or null if the get failed.
+     */
+    private InformationObject requestIo(Identifier identifier) {
+        Log.d(TAG, "requestIo()");
+        HttpResponse response = null;
         try {
             // Create NetInf GET request
             Log.d(TAG, "Creating HTTP POST");
             String uri = "ni:///" + getHashAlg(identifier) + ";" + getHash(identifier);
             Log.d(TAG, "uri = " + uri);
             HttpPost getRequest = createGet(uri);
+            HttpClientFactory.setTimeout(getRequest, TIMEOUT);
 
             // Execute NetInf GET request
             Log.d(TAG, "Executing HTTP POST");
-            HttpResponse response = mClient.execute(getRequest);
+            response = mClient.execute(getRequest);
 
             // Print all response headers
             Log.d(TAG, "HTTP POST Response Headers:");
@@ -494,20 +933,78 @@ implements ResolutionService {
             // Handle the response
             Log.d(TAG, "Handling HTTP POST Response");
             InformationObject io = handleResponse(identifier, response);
-            Log.d(TAG, "get() succeeded. Returning InformationObject");
+            Log.d(TAG, "requestIo() succeeded. Returning InformationObject");
             return io;
 
         } catch (InvalidResponseException e) {
-            Log.e(TAG, "get() failed, InvalidResponseException, returning null");
+            Log.e(TAG, "requestIo() failed, InvalidResponseException, returning null");
         } catch (UnsupportedEncodingException e) {
-            Log.e(TAG, "get() failed, UnsupportedEncodingException, returning null");
+            Log.e(TAG, "requestIo() failed, UnsupportedEncodingException, returning null");
         } catch (IOException e) {
-            Log.e(TAG, "get() failed, IOException, returning null");
+            Log.e(TAG, "requestIo() failed, IOException, returning null");
+        } finally {
+            HttpClientFactory.consume(response);
         }
-        Log.e(TAG, "get() failed. Returning null");
+        Log.e(TAG, "requestIo() failed. Returning null");
         return null;
     }
 
+    /**
+     * Performs a NetInf GET request without blocking the caller.
+     * @param identifier       Identifier describing the InformationObject to get
+     * @param callback         Told about the outcome, may be null
+     * @return                 A future holding the result of {@link #get(Identifier)}
+     */
+    public Future<InformationObject> getAsync(final Identifier identifier,
+            ResolutionCallback<InformationObject> callback) {
+        Log.d(TAG, "getAsync()");
+        return submit(new Callable<InformationObject>() {
+            @Override
+            public InformationObject call() {
+                return get(identifier);
+            }
+        }, callback);
+    }
+
+    /**
+     * Performs a NetInf PUBLISH request without blocking the caller.
+     * @param io               The InformationObject to publish
+     * @param callback         Told about the outcome, may be null
+     * @return                 A future that completes when the publish is done
+     */
+    public Future<Void> putAsync(final InformationObject io, ResolutionCallback<Void> callback) {
+        Log.d(TAG, "putAsync()");
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                put(io);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Runs a request to the NRS on the bounded request pool. If the pool
+     * is full the request is not run, and the returned future and the
+     * callback both fail with a {@link RejectedExecutionException}.
+     * @param request          The request
+     * @param callback         Told about the outcome, may be null
+     * @param <T>              The type of the result
+     * @return                 A future holding the result of the request
+     */
+    <T> Future<T> submit(Callable<T> request, ResolutionCallback<T> callback) {
+        CallbackTask<T> task = new CallbackTask<T>(request, callback);
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Too many requests to the NRS, "
+                    + mExecutor.getActiveCount() + " running, "
+                    + mExecutor.getQueue().size() + " queued");
+            task.reject(e);
+        }
+        return task;
+    }
+
     @Override
     public List<Identifier> getAllVersions(Identifier arg0) {
         // TODO Auto-generated method stub
@@ -518,11 +1015,15 @@ implements ResolutionService {
     public void put(InformationObject io) {
         Log.d(TAG, "put()");
 
+        HttpResponse response = null;
         try {
             Log.d(TAG, "Creating HTTP POST");
             HttpPost post = createPublish(io);
+            HttpClientFactory.setTimeout(post, TIMEOUT);
             Log.d(TAG, "Executing HTTP POST to " + post.getURI());
-            HttpResponse response = mClient.execute(post);
+            long start = SystemClock.elapsedRealtime();
+            response = mClient.execute(post);
+            logThroughput((CountingEntity) post.getEntity(), SystemClock.elapsedRealtime() - start);
             Log.d(TAG, "statusCode = "
                     + Integer.toString(response.getStatusLine().getStatusCode()));
             Log.d(TAG, "content = " + streamToString(response.getEntity().getContent()));
@@ -531,9 +1032,22 @@ implements ResolutionService {
             throw new NetInfResolutionException("Encoding not supported", e);
         } catch (IOException e) {
             throw new NetInfResolutionException("Unable to connect to NRS", e);
+        } finally {
+            HttpClientFactory.consume(response);
         }
     }
 
+    /**
+     * Logs how fast a publish was uploaded.
+     * @param entity       The uploaded entity
+     * @param elapsed      Milliseconds from sending the request to receiving the response
+     */
+    private void logThroughput(CountingEntity entity, long elapsed) {
+        long bytes = entity.getBytesWritten();
+        Log.d(TAG, "Uploaded " + bytes + " bytes in " + elapsed + " ms, "
+                + (bytes * 1000 / 1024 / Math.max(1, elapsed)) + " KB/s");
+    }
+
     /**
      * Creates an HTTP POST representation of a NetInf PUBLISH message.
      * @param io
@@ -587,13 +1101,17 @@ implements ResolutionService {
         StringBody rform = new StringBody("json");
         entity.addPart("rform", rform);
 
-        try {
-            entity.writeTo(System.out);
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to write MultipartEntity to System.out");
+        // Summarise the publish without touching the file octets
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "publish ni:///" + hashAlg + ";" + hash
+                    + ", ct = " + contentType
+                    + ", loc1 = " + bluetoothMac
+                    + ", ext = " + (meta == null ? 0 : meta.length()) + " chars"
+                    + ", octets = " + (filePath == null ? "none" : new File(filePath).length() + " bytes")
+                    + ", chunked = " + mChunkedPublish);
         }
 
-        post.setEntity(entity);
+        post.setEntity(new CountingEntity(entity, mChunkedPublish));
         return post;
     }
 
@@ -625,6 +1143,28 @@ implements ResolutionService {
         return post;
     }
 
+    /**
+     * Creates an HTTP Post request to get several IOs from the NRS at once.
+     * @param uris                             The NetInf format URIs of the IOs
+     * @return                                 The HTTP Post request
+     * @throws UnsupportedEncodingException    In case UTF-8 is not supported
+     */
+    private HttpPost createBatchGet(Collection<String> uris) throws UnsupportedEncodingException {
+
+        HttpPost post = new HttpPost(mHost + ":" + mPort + BATCH_GET_PATH);
+
+        List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+        for (String uri : uris) {
+            parameters.add(new BasicNameValuePair("URI", uri));
+        }
+        parameters.add(new BasicNameValuePair("msgid",
+                Integer.toString(mRandomGenerator.nextInt(MSG_ID_MAX))));
+        parameters.add(new BasicNameValuePair("ext", "no extension"));
+        post.setEntity(new UrlEncodedFormEntity(parameters, "UTF-8"));
+
+        return post;
+    }
+
     @Override
     protected ResolutionServiceIdentityObject createIdentityObject() {
         ResolutionServiceIdentityObject identity = mDatamodelFactory
@@ -660,4 +1200,65 @@ implements ResolutionService {
         byte[] bytes = str.getBytes();
         return new ByteArrayInputStream(bytes);
     }
+
+    /**
+     * A request that reports its outcome to a callback when it is done.
+     * @param <T> The type of the result
+     */
+    private static class CallbackTask<T> extends FutureTask<T> {
+
+        /** Told about the outcome, may be null. **/
+        private final ResolutionCallback<T> mCallback;
+
+        /**
+         * Creates a task.
+         * @param request      The request to run
+         * @param callback     Told about the outcome, may be null
+         */
+        public CallbackTask(Callable<T> request, ResolutionCallback<T> callback) {
+            super(request);
+            mCallback = callback;
+        }
+
+        /**
+         * Fails the task without running it.
+         * @param e            Why the task was not run
+         */
+        public void reject(Exception e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            if (mCallback == null) {
+                return;
+            }
+            try {
+                mCallback.onSuccess(get());
+            } catch (CancellationException e) {
+                mCallback.onFailure(e);
+            } catch (InterruptedException e) {
+                mCallback.onFailure(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                mCallback.onFailure(cause instanceof Exception ? (Exception) cause : e);
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon threads that run asynchronous requests.
+     */
+    private static class RequestThreadFactory implements ThreadFactory {
+
+        /** Number of threads created so far. **/
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NRS-request-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.netinf.node.resolution;
+
+/**
+ * Receives the outcome of an asynchronous request to a resolution service.
+ * The methods are called on the thread that ran the request, so they
+ * should return quickly.
+ *
+ * @param <T>	The type of the result
+ */
+public interface ResolutionCallback<T> {
+
+	/**
+	 * Called when the request completed.
+	 *
+	 * @param result	The result of the request, may be null
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Called when the request failed or was rejected.
+	 *
+	 * @param e			What made the request fail
+	 */
+	void onFailure(Exception e);
+}
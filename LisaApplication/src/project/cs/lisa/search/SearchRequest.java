@@ -20,10 +20,6 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -33,6 +29,7 @@ import project.cs.lisa.application.MainApplication;
 import project.cs.lisa.exceptions.InvalidResponseException;
 import project.cs.lisa.netinf.node.access.rest.resources.LisaServerResource;
 import project.cs.lisa.netinf.node.resolution.LocalResolutionService;
+import project.cs.lisa.util.HttpClientFactory;
 import project.cs.lisa.util.UProperties;
 
 import android.util.Log;
@@ -54,7 +51,7 @@ public class SearchRequest extends LisaServerResource {
     /** HTTP connection timeout. **/
     private static final int TIMEOUT = 3000;
     
-    /** HTTP Client **/
+    /** HTTP Client, shared with the rest of the node **/
     private HttpClient mClient;
     
     /** Keywords string **/
@@ -79,11 +76,8 @@ public class SearchRequest extends LisaServerResource {
         Log.d(TAG, "doInit() search");
         mHost = UProperties.INSTANCE.getPropertyWithName("nrs.http.host");
         mPort = UProperties.INSTANCE.getPropertyWithName("nrs.http.port");
-        // Setup HTTP client
-        HttpParams params = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
-        HttpConnectionParams.setSoTimeout(params, TIMEOUT);
-        mClient = new DefaultHttpClient(params);
+        // Pooled HTTP client, so searches reuse the connection to the NRS
+        mClient = MainApplication.getStaticInjector().getInstance(HttpClient.class);
     }
 
     /**
@@ -219,15 +213,17 @@ public class SearchRequest extends LisaServerResource {
 
         /* SERVER SEARCH */
         
+        HttpResponse response = null;
         try {
             // Create NetInf SEARCH request
             Log.d(TAG, "Creating HTTP POST");
             HttpPost searchRequest = createSearch(mMsgId, mTokens, mExt);
+            HttpClientFactory.setTimeout(searchRequest, TIMEOUT);
             Log.d(TAG, searchRequest.toString());
 
             // Execute NetInf SEARCH request
             Log.d(TAG, "Executing HTTP POST");
-            HttpResponse response = mClient.execute(searchRequest);
+            response = mClient.execute(searchRequest);
 
             // Print all response headers
             Log.d(TAG, "HTTP POST Response Headers:");
@@ -251,6 +247,9 @@ public class SearchRequest extends LisaServerResource {
         } catch (IOException e) {
             Log.d(TAG, "IOException");
             e.printStackTrace();
+        } finally {
+            // Give the connection back to the pool
+            HttpClientFactory.consume(response);
         }
         
         Log.e(TAG, "search() failed. Returning null");
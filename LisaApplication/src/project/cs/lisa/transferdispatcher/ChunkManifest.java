@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.transferdispatcher;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import netinf.common.datamodel.IdentifierLabel;
+import netinf.common.datamodel.InformationObject;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import android.util.Log;
+
+/**
+ * Describes how a BO is split into chunks that can be fetched from different
+ * locators independently. The BO is cut into chunks of a fixed size, only the
+ * last one may be shorter, and every chunk is named by its own hash so that it
+ * can be verified as soon as it arrives.
+ *
+ * <p>
+ * The manifest travels in the meta data of an IO under {@link #METADATA_KEY},
+ * encoded as {@code size;chunkSize;hash,hash,...}.
+ */
+public final class ChunkManifest {
+
+    /** Key of the manifest in the meta data of an IO. */
+    public static final String METADATA_KEY = "chunks";
+
+    /** Debug tag. */
+    private static final String TAG = "ChunkManifest";
+
+    /** Separates the size, the chunk size and the hashes. */
+    private static final String FIELD_SEPARATOR = ";";
+
+    /** Separates the hashes of the chunks. */
+    private static final String HASH_SEPARATOR = ",";
+
+    /** Size of the BO in bytes. */
+    private final long mSize;
+
+    /** Size of every chunk but the last one. */
+    private final int mChunkSize;
+
+    /** The hash of every chunk, in order. */
+    private final List<String> mHashes;
+
+    /**
+     * Creates a manifest.
+     *
+     * @param size      Size of the BO in bytes
+     * @param chunkSize Size of every chunk but the last one
+     * @param hashes    The hash of every chunk, in order
+     * @throws IllegalArgumentException If the number of hashes does not fit the sizes
+     */
+    public ChunkManifest(long size, int chunkSize, List<String> hashes) {
+        if (size < 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid sizes: " + size + ", " + chunkSize);
+        }
+        long chunkCount = (size + chunkSize - 1) / chunkSize;
+        if (hashes.size() != chunkCount) {
+            throw new IllegalArgumentException("Expected " + chunkCount + " chunk hashes, got "
+                    + hashes.size());
+        }
+        mSize = size;
+        mChunkSize = chunkSize;
+        mHashes = Collections.unmodifiableList(new ArrayList<String>(hashes));
+    }
+
+    /**
+     * Creates the manifest of a file by hashing it chunk by chunk.
+     *
+     * @param file      The file to describe
+     * @param chunkSize The size of the chunks
+     * @return The manifest of the file
+     * @throws IOException If the file could not be read
+     */
+    public static ChunkManifest create(File file, int chunkSize) throws IOException {
+        long size = file.length();
+        List<String> hashes = new ArrayList<String>();
+        byte[] chunk = new byte[(int) Math.min(chunkSize, size)];
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            long offset = 0;
+            while (offset < size) {
+                int length = (int) Math.min(chunkSize, size - offset);
+                in.readFully(chunk, 0, length);
+                hashes.add(ContentHasher.INSTANCE.hash(ByteBuffer.wrap(chunk, 0, length)));
+                offset += length;
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        return new ChunkManifest(size, chunkSize, hashes);
+    }
+
+    /**
+     * Parses an encoded manifest.
+     *
+     * @param encoded   The manifest as returned by {@link #encode()}
+     * @return The manifest
+     * @throws IllegalArgumentException If the manifest is malformed
+     */
+    public static ChunkManifest decode(String encoded) {
+        String[] fields = encoded.split(FIELD_SEPARATOR, -1);
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Malformed chunk manifest");
+        }
+
+        List<String> hashes = new ArrayList<String>();
+        if (fields[2].length() > 0) {
+            for (String hash : fields[2].split(HASH_SEPARATOR)) {
+                hashes.add(hash);
+            }
+        }
+
+        try {
+            return new ChunkManifest(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), hashes);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed chunk manifest", e);
+        }
+    }
+
+    /**
+     * Returns the manifest carried in the meta data of an IO.
+     *
+     * @param io    The IO
+     * @return The manifest, or null if the IO has none or it is malformed
+     */
+    public static ChunkManifest fromIo(InformationObject io) {
+        IdentifierLabel label = io.getIdentifier().getIdentifierLabel(
+                SailDefinedLabelName.META_DATA.getLabelName());
+        if (label == null || label.getLabelValue() == null) {
+            return null;
+        }
+
+        try {
+            JSONObject metadata = new JSONObject(label.getLabelValue());
+            // Published meta data is wrapped in "meta", depending on who returned the IO
+            JSONObject wrapped = metadata.optJSONObject("meta");
+            if (wrapped != null) {
+                metadata = wrapped;
+            }
+            String encoded = metadata.optString(METADATA_KEY, null);
+            return encoded == null ? null : decode(encoded);
+        } catch (JSONException e) {
+            Log.w(TAG, "Meta data is not valid JSON.");
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring chunk manifest: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the manifest for the meta data of an IO.
+     *
+     * @return The encoded manifest
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mSize).append(FIELD_SEPARATOR).append(mChunkSize).append(FIELD_SEPARATOR);
+        for (int i = 0; i < mHashes.size(); i++) {
+            if (i > 0) {
+                builder.append(HASH_SEPARATOR);
+            }
+            builder.append(mHashes.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the size of the BO.
+     *
+     * @return The size in bytes
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of chunks.
+     *
+     * @return The number of chunks
+     */
+    public int getChunkCount() {
+        return mHashes.size();
+    }
+
+    /**
+     * Returns where a chunk starts in the BO.
+     *
+     * @param chunk The index of the chunk
+     * @return The offset of the chunk in bytes
+     */
+    public long getOffset(int chunk) {
+        return (long) chunk * mChunkSize;
+    }
+
+    /**
+     * Returns the length of a chunk.
+     *
+     * @param chunk The index of the chunk
+     * @return The length of the chunk in bytes
+     */
+    public int getLength(int chunk) {
+        return (int) Math.min(mChunkSize, mSize - getOffset(chunk));
+    }
+
+    /**
+     * Checks that received data is the complete chunk.
+     *
+     * @param chunk The index of the chunk
+     * @param data  The received data
+     * @return True if the data has the length and the hash of the chunk
+     */
+    public boolean matches(int chunk, byte[] data) {
+        return data.length == getLength(chunk)
+                && ContentHasher.INSTANCE.matchesHash(ContentHasher.INSTANCE.hash(data),
+                        mHashes.get(chunk));
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.transferdispatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import project.cs.lisa.bluetooth.provider.ByteArrayProvider;
+import android.util.Log;
+
+/**
+ * Downloads the chunks of a BO from several locators at the same time.
+ *
+ * <p>
+ * Every locator gets its own worker that keeps taking the next missing chunk,
+ * fetches it with a range request, verifies it against the manifest and writes
+ * it to its place in the file. A chunk that fails is put back for any worker
+ * to take, and a locator that fails too often drops out. Faster locators thus
+ * end up delivering more chunks.
+ */
+class ChunkScheduler {
+
+    /** Debug tag. */
+    private static final String TAG = "ChunkScheduler";
+
+    /** Failed chunks after which a locator is no longer asked. */
+    private static final int MAX_FAILURES = 3;
+
+    /** How long an idle worker waits for a chunk to be put back. */
+    private static final long POLL_INTERVAL_MS = 500;
+
+    /** The manifest of the BO. */
+    private final ChunkManifest mManifest;
+
+    /** The hash of the BO. */
+    private final String mHash;
+
+    /** Runs the workers. */
+    private final ExecutorService mExecutor;
+
+    /** The chunks nobody is working on. */
+    private final BlockingQueue<Integer> mPending = new LinkedBlockingQueue<Integer>();
+
+    /** The number of chunks that are not written yet. */
+    private final AtomicInteger mRemaining = new AtomicInteger();
+
+    /**
+     * Creates a scheduler for one BO.
+     *
+     * @param manifest  The manifest of the BO
+     * @param hash      The hash of the BO
+     * @param executor  Runs the workers, one per locator
+     */
+    ChunkScheduler(ChunkManifest manifest, String hash, ExecutorService executor) {
+        mManifest = manifest;
+        mHash = hash;
+        mExecutor = executor;
+    }
+
+    /**
+     * Downloads all chunks into a file. The file is deleted again if not
+     * every chunk could be fetched.
+     *
+     * @param sources   The provider to use for each locator address
+     * @param file      The file to write the BO to
+     * @throws IOException If some chunks could not be fetched from any locator
+     */
+    void download(Map<String, ByteArrayProvider> sources, File file) throws IOException {
+        int chunkCount = mManifest.getChunkCount();
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            mPending.add(chunk);
+        }
+        mRemaining.set(chunkCount);
+
+        // BOs are named by their hash, which may put them in a subdirectory
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+
+        boolean complete = false;
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        try {
+            out.setLength(mManifest.getSize());
+            FileChannel channel = out.getChannel();
+
+            for (Map.Entry<String, ByteArrayProvider> source : sources.entrySet()) {
+                workers.add(mExecutor.submit(
+                        new Worker(source.getKey(), source.getValue(), channel)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            complete = mRemaining.get() == 0;
+            if (!complete) {
+                throw new IOException(mRemaining.get() + " of " + chunkCount
+                        + " chunks could not be fetched.");
+            }
+            Log.d(TAG, "Fetched " + chunkCount + " chunks from " + sources.size() + " locators.");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching chunks.");
+        } catch (ExecutionException e) {
+            throw new IOException("Fetching chunks failed: " + e.getCause());
+        } finally {
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+            IOUtils.closeQuietly(out);
+            if (!complete && !file.delete()) {
+                Log.w(TAG, "Could not delete incomplete file " + file);
+            }
+        }
+    }
+
+    /** Fetches chunks from one locator until all chunks are written. */
+    private class Worker implements Runnable {
+
+        /** The address of the locator. */
+        private final String mAddress;
+
+        /** The provider that can reach the locator. */
+        private final ByteArrayProvider mProvider;
+
+        /** The file the chunks are written to. */
+        private final FileChannel mChannel;
+
+        /** The number of chunks that failed from this locator. */
+        private int mFailures;
+
+        /**
+         * Creates a worker for one locator.
+         *
+         * @param address   The address of the locator
+         * @param provider  The provider that can reach the locator
+         * @param channel   The file the chunks are written to
+         */
+        Worker(String address, ByteArrayProvider provider, FileChannel channel) {
+            mAddress = address;
+            mProvider = provider;
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mRemaining.get() > 0 && mFailures < MAX_FAILURES) {
+                    // Wait a while, chunks in flight at other workers may come back
+                    Integer chunk = mPending.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (chunk != null && !fetch(chunk)) {
+                        ++mFailures;
+                        mPending.add(chunk);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Worker for " + mAddress + " cancelled.");
+            }
+
+            if (mFailures >= MAX_FAILURES) {
+                Log.w(TAG, "Giving up on " + mAddress + " after " + mFailures + " failed chunks.");
+            }
+        }
+
+        /**
+         * Fetches, verifies and writes one chunk.
+         *
+         * @param chunk The index of the chunk
+         * @return True if the chunk was written
+         * @throws InterruptedException If the worker was cancelled
+         */
+        private boolean fetch(int chunk) throws InterruptedException {
+            long offset = mManifest.getOffset(chunk);
+            byte[] data;
+            try {
+                data = mProvider.getByteArray(mAddress, mHash, offset, mManifest.getLength(chunk));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Fetching chunk " + chunk + " from " + mAddress + " failed.", e);
+                data = null;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            if (data == null || !mManifest.matches(chunk, data)) {
+                Log.w(TAG, "Chunk " + chunk + " from " + mAddress + " is missing or corrupt.");
+                return false;
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    mChannel.write(buffer, offset + buffer.position());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Writing chunk " + chunk + " failed.", e);
+                return false;
+            }
+
+            mRemaining.decrementAndGet();
+            return true;
+        }
+    }
+}
@@ -55,17 +55,29 @@
  */
 package project.cs.lisa.transferdispatcher;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import netinf.common.datamodel.DefinedAttributePurpose;
+import netinf.common.datamodel.Identifier;
 import netinf.common.datamodel.InformationObject;
 import netinf.common.datamodel.attribute.Attribute;
 import project.cs.lisa.bluetooth.BluetoothDiscovery;
 import project.cs.lisa.bluetooth.provider.BluetoothProvider;
 import project.cs.lisa.bluetooth.provider.ByteArrayProvider;
+import project.cs.lisa.bluetooth.provider.StreamProvider;
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.hash.Hash;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import project.cs.lisa.util.UProperties;
 import android.util.Log;
 
 /**
@@ -88,32 +100,62 @@ public enum TransferDispatcher {
 
     /** The prefix for identifying bluetooth locator nodes. */
     private static final String BLUETOOTH_PREFIX = "nimacbt://";
-    
-    /** The list of available byte array providers. */
+
+    /** Number of locators raced against each other when no width is configured. */
+    private static final int DEFAULT_RACE_WIDTH = 3;
+
+    /** Number of locators chunks are fetched from when no width is configured. */
+    private static final int DEFAULT_SWARM_WIDTH = 4;
+
+    /** The list of available byte array providers, used for chunks. */
     private List<ByteArrayProvider> mByteArrayProviders;
 
+    /** The list of available stream providers, used for whole BOs. */
+    private List<StreamProvider> mStreamProviders;
+
+    /** Number of locators that are asked for the same BO at the same time. */
+    private int mRaceWidth;
+
+    /** Number of locators that chunks of the same BO are fetched from at the same time. */
+    private int mSwarmWidth;
+
+    /** Runs the transfers of a race. */
+    private ExecutorService mTransferExecutor;
+
     /**
      * Initializes the Transfer Dispatcher with
      * existing providers.
      */
     private TransferDispatcher() {
-        addByteArrayProviders();
+        addProviders();
+        mRaceWidth = UProperties.INSTANCE.getIntPropertyWithName(
+                "transfer.race.width", DEFAULT_RACE_WIDTH);
+        mSwarmWidth = UProperties.INSTANCE.getIntPropertyWithName(
+                "transfer.swarm.width", DEFAULT_SWARM_WIDTH);
+        mTransferExecutor = Executors.newCachedThreadPool(new TransferThreadFactory());
     }
 
-    /** Adds available ByteArrayProviders to the TransferDispatcher. */   
-    private void addByteArrayProviders() {
+    /** Adds available ByteArrayProviders and StreamProviders to the TransferDispatcher. */
+    private void addProviders() {
+        BluetoothProvider bluetoothProvider = new BluetoothProvider();
+
         mByteArrayProviders = new ArrayList<ByteArrayProvider>();
-        mByteArrayProviders.add(new BluetoothProvider());
+        mByteArrayProviders.add(bluetoothProvider);
+
+        mStreamProviders = new ArrayList<StreamProvider>();
+        mStreamProviders.add(bluetoothProvider);
     }
 
     /**
-     * Provides the stream by a given DO.
-     * 
-     * @param io The information object
-     * @return Stream to the underlying BO.
-     * @throws IOException	Thrown if no locator could be found
+     * Downloads a BO into a file. The best locators are raced against each
+     * other and the first verified copy is kept; the data goes from the
+     * connection to the file without being held in memory.
+     *
+     * @param io    The information object
+     * @param file  The file to write the BO to
+     * @throws IOException	Thrown if no locator could deliver the BO
      */
-    public byte[] getByteArray(InformationObject io) throws IOException {
+    public void getFile(InformationObject io, File file) throws IOException {
 
         List<Attribute> locators = extractLocators(io);
 
@@ -121,28 +163,76 @@ public enum TransferDispatcher {
          * locators that are right now available via bluetooth.
          */
         List<String> availableFilteredBluetoothLocators = filterBluetoothLocators(locators);
-        
-        byte[] resultArray;
-        String hash = io.getIdentifier().getIdentifierLabel(
+
+        Map<String, StreamProvider> sources = new LinkedHashMap<String, StreamProvider>();
+        for (String locator : availableFilteredBluetoothLocators) {
+            StreamProvider provider = getStreamProvider(locator);
+            if (provider != null) {
+                sources.put(extractLocatorAddress(locator), provider);
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new IOException("No suitable locator could be found.");
+        }
+
+        Identifier identifier = io.getIdentifier();
+        String hash = identifier.getIdentifierLabel(
         		SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
+        String hashAlg = identifier.getIdentifierLabel(
+                SailDefinedLabelName.HASH_ALG.getLabelName()).getLabelValue();
+
+        // Races the best locators and keeps the first verified transfer.
+        new TransferRace(hash, hashAlg, mRaceWidth, mTransferExecutor).run(sources, file);
+    }
 
-        // Tries to retrieve the BO from the first possible locator. 
-        for (String currentLocator : availableFilteredBluetoothLocators) {
+    /**
+     * Downloads a BO that is described by a chunk manifest into a file. The
+     * chunks are fetched from several locators at the same time, each chunk is
+     * verified on arrival and the complete file is verified at the end.
+     *
+     * @param io        The information object
+     * @param manifest  The chunk manifest of the BO
+     * @param file      The file to write the BO to
+     * @throws IOException If the BO could not be downloaded completely
+     */
+    public void getFile(InformationObject io, ChunkManifest manifest, File file)
+            throws IOException {
+        List<String> locators = filterBluetoothLocators(extractLocators(io));
 
-        	resultArray = getByteArray(currentLocator, hash);         
-            if (resultArray != null) {
-            	Log.d(TAG, "Received data from the following locator " + currentLocator);
-            	
-            	return resultArray;
+        Map<String, ByteArrayProvider> sources = new LinkedHashMap<String, ByteArrayProvider>();
+        for (String locator : locators) {
+            ByteArrayProvider provider = getByteArrayProvider(locator);
+            if (provider != null && sources.size() < mSwarmWidth) {
+                sources.put(extractLocatorAddress(locator), provider);
             }
         }
+        if (sources.isEmpty()) {
+            throw new IOException("No suitable locator could be found.");
+        }
+
+        Identifier identifier = io.getIdentifier();
+        String hash = identifier.getIdentifierLabel(
+                SailDefinedLabelName.HASH_CONTENT.getLabelName()).getLabelValue();
+        String hashAlg = identifier.getIdentifierLabel(
+                SailDefinedLabelName.HASH_ALG.getLabelName()).getLabelValue();
 
-        throw new IOException("No suitable locator could be found.");
+        Log.d(TAG, "Fetching " + manifest.getChunkCount() + " chunks from " + sources.keySet());
+        new ChunkScheduler(manifest, hash, mTransferExecutor).download(sources, file);
+
+        // The manifest is not covered by the hash, so check the whole file as well
+        if (Hash.ALGORITHM.equalsIgnoreCase(hashAlg)
+                && !ContentHasher.INSTANCE.matchesHash(ContentHasher.INSTANCE.hash(file), hash)) {
+            if (!file.delete()) {
+                Log.w(TAG, "Could not delete corrupt file " + file);
+            }
+            throw new IOException("The chunks do not add up to the hash " + hash);
+        }
     }
 
     /**
      * Returns a sublist of locators that are currently 
-     * available via Bluetooth.
+     * available via Bluetooth, according to the neighbor table
+     * kept by the background discovery.
      * 
      * @param locators	The list of all locators that own the BO.
      * @return			The sublist of locators that are available
@@ -151,8 +241,7 @@ public enum TransferDispatcher {
     private List<String> filterBluetoothLocators(List<Attribute> locators) {
     	Log.d(TAG, "Filter locators.");
     	
-    	BluetoothDiscovery btDiscovery = BluetoothDiscovery.INSTANCE;
-        List<String> availableLocators = btDiscovery.startBluetoothDiscovery();
+        List<String> availableLocators = BluetoothDiscovery.INSTANCE.getAvailableDevices();
                
         // Configure locator identifiers to have the bluetooth locator node prefix. 
         int numberOfLocators = availableLocators.size();
@@ -162,8 +251,6 @@ public enum TransferDispatcher {
         	availableLocators.set(i, locator);
         }
         
-        Log.d(TAG, "The first locator: " + availableLocators.get(0));
-        
         /* 
          * Converts the Attribute locators to String locators that represent
          * the MAC address of each locator.
@@ -196,38 +283,20 @@ public enum TransferDispatcher {
 
 
     /**
-     * Given a locator and a file hash, this method provides the byte array corresponding
-     * to the hash.
+     * Provides the appropriate StreamProvider.
      * 
-     * @param locator
-     *           The locator from where the file should be fetched
-     * @param hash
-     *           The hash of the file that will be fetched
-     * @return The byte array corresponding to the hash of the file obtained from the address
-     *         specified in the locator.
+     * @param locator	The locator from where the file will be fetched
+     * @return The specific StreamProvider.
      */
-    public byte[] getByteArray(String locator, String hash) {
-
-        /*
-         * At this point any service (bluetooth, wifi) could be used to
-         * retrieve the BO. We should have some way to choose the best
-         * service depending on the available type of locators,
-         * go through the list of locators contained in the io,
-         * and start the transfer of the BO.
-         */
-
-        Log.d(TAG, "Connecting to the following locator: " + locator);
-        
-        ByteArrayProvider provider = getByteArrayProvider(locator);
-        if (provider != null) {
-        	String locatorMacAddress = extractLocatorAddress(locator);
-        	return provider.getByteArray(locatorMacAddress, hash);
-        	
-        } else {
-        	Log.e(TAG, "No provider could be found.");
-        	return null;
+    private StreamProvider getStreamProvider(String locator) {
+        for (StreamProvider provider : mStreamProviders) {
+            if (provider.canHandle(locator)) {
+                Log.d(TAG, "Choosing the following provider: " + provider.describe());
+                return provider;
+            }
         }
-    }   
+        return null;
+    }
 
 	/**
      * Provides the appropriate ByteArrayProvider.
@@ -258,4 +327,18 @@ public enum TransferDispatcher {
 		
 		return macAddress;
 	}
+
+    /** Creates the daemon threads that run transfers. */
+    private static class TransferThreadFactory implements ThreadFactory {
+
+        /** Counter used to name the threads. */
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Transfer-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.transferdispatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import project.cs.lisa.bluetooth.provider.StreamProvider;
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.hash.Hash;
+import android.util.Log;
+
+/**
+ * Fetches a BO from several locators at the same time and keeps the first
+ * complete copy that matches the hash.
+ *
+ * <p>
+ * Every transfer streams into its own part file next to the target file, so
+ * memory use does not depend on the size of the BO. The winning part file is
+ * renamed to the target file, the other transfers are cancelled and their
+ * part files deleted. A failed transfer is replaced by the next locator.
+ */
+public class TransferRace {
+
+    /** Debug tag. */
+    private static final String TAG = "TransferRace";
+
+    /** Suffix of the files transfers write to. */
+    private static final String PART_SUFFIX = ".part";
+
+    /** The hash of the BO. */
+    private final String mHash;
+
+    /** The hash algorithm of the BO. */
+    private final String mHashAlg;
+
+    /** The number of transfers running at the same time. */
+    private final int mWidth;
+
+    /** Runs the transfers. */
+    private final ExecutorService mExecutor;
+
+    /** Guards {@link #mDecided} and {@link #mFinished}. */
+    private final Object mLock = new Object();
+
+    /** Whether the race is over, so that finished transfers clean up after themselves. */
+    private boolean mDecided;
+
+    /** Part files of transfers that finished before the race was over. */
+    private final Set<File> mFinished = new HashSet<File>();
+
+    /**
+     * Creates a race for one BO.
+     *
+     * @param hash      The hash of the BO
+     * @param hashAlg   The hash algorithm of the BO
+     * @param width     The number of transfers running at the same time
+     * @param executor  Runs the transfers
+     */
+    public TransferRace(String hash, String hashAlg, int width, ExecutorService executor) {
+        mHash = hash;
+        mHashAlg = hashAlg;
+        mWidth = width;
+        mExecutor = executor;
+    }
+
+    /**
+     * Runs the race and stores the winning copy of the BO in a file.
+     *
+     * @param sources   The provider to use for each locator address, in the
+     *                  order the locators should be tried
+     * @param file      The file to store the BO in
+     * @throws IOException If no locator delivered a verified copy
+     */
+    public void run(Map<String, StreamProvider> sources, File file) throws IOException {
+        // BOs are named by their hash, which may put them in a subdirectory
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+
+        CompletionService<File> transfers = new ExecutorCompletionService<File>(mExecutor);
+        Map<Future<File>, String> running = new HashMap<Future<File>, String>();
+        Iterator<Map.Entry<String, StreamProvider>> pending = sources.entrySet().iterator();
+        File winner = null;
+
+        try {
+            while (running.size() < mWidth && pending.hasNext()) {
+                start(transfers, running, pending.next(), file);
+            }
+
+            while (winner == null && !running.isEmpty()) {
+                Future<File> finished = transfers.take();
+                String address = running.remove(finished);
+                File part = getPart(finished, address);
+
+                if (part != null && isVerified(part)) {
+                    Log.d(TAG, "Received data from the following locator " + address);
+                    winner = part;
+                } else {
+                    discard(part);
+                    if (pending.hasNext()) {
+                        start(transfers, running, pending.next(), file);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transfer.");
+        } finally {
+            finish(winner, running.keySet());
+        }
+
+        if (winner == null) {
+            throw new IOException("No locator delivered the BO.");
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not replace " + file);
+        }
+        if (!winner.renameTo(file)) {
+            discard(winner);
+            throw new IOException("Could not move the BO to " + file);
+        }
+    }
+
+    /**
+     * Starts a transfer from one locator.
+     *
+     * @param transfers The completion service of the race
+     * @param running   The running transfers and their locator addresses
+     * @param source    The locator address and the provider that can reach it
+     * @param file      The file the BO will be stored in
+     */
+    private void start(CompletionService<File> transfers, Map<Future<File>, String> running,
+            Map.Entry<String, StreamProvider> source, File file) {
+        Log.d(TAG, "Starting transfer from " + source.getKey());
+        Future<File> transfer = transfers.submit(
+                new Transfer(source.getKey(), source.getValue(), file));
+        running.put(transfer, source.getKey());
+    }
+
+    /**
+     * Returns the part file of a finished transfer.
+     *
+     * @param transfer  The finished transfer
+     * @param address   The locator address of the transfer
+     * @return The part file, or null if the transfer failed
+     * @throws InterruptedException If interrupted while reading the result
+     */
+    private File getPart(Future<File> transfer, String address) throws InterruptedException {
+        try {
+            return transfer.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Transfer from " + address + " failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Checks that a part file matches the hash of the BO.
+     *
+     * @param part  The part file
+     * @return True if the part file can be used. Parts of BOs named with
+     *         other algorithms are accepted as they are.
+     * @throws IOException If the part file could not be read
+     */
+    private boolean isVerified(File part) throws IOException {
+        if (!Hash.ALGORITHM.equalsIgnoreCase(mHashAlg)) {
+            return true;
+        }
+        if (ContentHasher.INSTANCE.matchesHash(ContentHasher.INSTANCE.hash(part), mHash)) {
+            return true;
+        }
+        Log.e(TAG, "The received data does not match the hash " + mHash);
+        return false;
+    }
+
+    /**
+     * Ends the race: cancels the losers and deletes every part file but the winner.
+     *
+     * @param winner    The winning part file, or null
+     * @param losers    The transfers still running
+     */
+    private void finish(File winner, Set<Future<File>> losers) {
+        List<File> leftovers;
+        synchronized (mLock) {
+            mDecided = true;
+            leftovers = new ArrayList<File>(mFinished);
+            mFinished.clear();
+        }
+
+        for (File part : leftovers) {
+            if (!part.equals(winner)) {
+                delete(part);
+            }
+        }
+        for (Future<File> loser : losers) {
+            loser.cancel(true);
+        }
+    }
+
+    /**
+     * Deletes the part file of a transfer that did not win.
+     *
+     * @param part  The part file, or null
+     */
+    private void discard(File part) {
+        if (part == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mFinished.remove(part);
+        }
+        delete(part);
+    }
+
+    /**
+     * Deletes a part file.
+     *
+     * @param part  The part file
+     */
+    private static void delete(File part) {
+        if (part.exists() && !part.delete()) {
+            Log.w(TAG, "Could not delete " + part);
+        }
+    }
+
+    /** Streams the BO from one locator into a part file. */
+    private class Transfer implements Callable<File> {
+
+        /** The address of the locator. */
+        private final String mAddress;
+
+        /** The provider that can reach the locator. */
+        private final StreamProvider mProvider;
+
+        /** The file the BO will be stored in. */
+        private final File mFile;
+
+        /**
+         * Creates a transfer from one locator.
+         *
+         * @param address   The address of the locator
+         * @param provider  The provider that can reach the locator
+         * @param file      The file the BO will be stored in
+         */
+        Transfer(String address, StreamProvider provider, File file) {
+            mAddress = address;
+            mProvider = provider;
+            mFile = file;
+        }
+
+        @Override
+        public File call() throws IOException {
+            File part = File.createTempFile(mFile.getName() + "-", PART_SUFFIX,
+                    mFile.getAbsoluteFile().getParentFile());
+            FileOutputStream out = new FileOutputStream(part);
+            boolean handedOver = false;
+
+            try {
+                long size = mProvider.transfer(mAddress, mHash, out.getChannel());
+                Log.d(TAG, "Received " + size + " bytes from " + mAddress);
+
+                // Once the race is over nobody else will delete the part file
+                synchronized (mLock) {
+                    if (!mDecided) {
+                        mFinished.add(part);
+                        handedOver = true;
+                    }
+                }
+                return handedOver ? part : null;
+
+            } finally {
+                IOUtils.closeQuietly(out);
+                if (!handedOver) {
+                    delete(part);
+                }
+            }
+        }
+    }
+}
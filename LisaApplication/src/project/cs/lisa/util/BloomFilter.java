@@ -0,0 +1,185 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.util;
+
+/**
+ * A Bloom filter over strings. It answers whether a string may have been
+ * added, with no false negatives and a tunable rate of false positives.
+ *
+ * The filter is sized from the number of strings expected and the false
+ * positive rate wanted. Adding more strings than expected raises the false
+ * positive rate, which {@link #getExpectedFalsePositiveRate()} reports.
+ *
+ */
+public class BloomFilter {
+
+	/** The number of strings the filter is sized for. */
+	private final int mExpectedInsertions;
+
+	/** The number of bits in the filter. */
+	private final long mBitCount;
+
+	/** The number of bits set per string. */
+	private final int mHashCount;
+
+	/** The bits. */
+	private final long[] mBits;
+
+	/** The number of strings added so far. */
+	private int mInsertions;
+
+	/**
+	 * Creates an empty filter.
+	 *
+	 * @param expectedInsertions	The number of strings expected to be added
+	 * @param falsePositiveRate		The wanted false positive rate, between 0 and 1
+	 */
+	public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+		}
+		mExpectedInsertions = Math.max(1, expectedInsertions);
+
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-mExpectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+		mBits = new long[(int) ((bits + 63) / 64)];
+		mBitCount = mBits.length * 64L;
+		mHashCount = Math.max(1, (int) Math.round((double) mBitCount / mExpectedInsertions * ln2));
+	}
+
+	/**
+	 * Adds a string to the filter.
+	 *
+	 * @param key	The string to add
+	 */
+	public synchronized void put(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 1; i <= mHashCount; i++) {
+			long bit = index(h1 + i * h2);
+			mBits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		mInsertions++;
+	}
+
+	/**
+	 * Checks whether a string may have been added to the filter.
+	 *
+	 * @param key	The string to check
+	 * @return		false if the string has definitely not been added,
+	 * 				true if it probably has
+	 */
+	public synchronized boolean mightContain(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 1; i <= mHashCount; i++) {
+			long bit = index(h1 + i * h2);
+			if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of strings added so far.
+	 *
+	 * @return	The number of strings added
+	 */
+	public synchronized int getInsertions() {
+		return mInsertions;
+	}
+
+	/**
+	 * Returns the number of strings the filter is sized for.
+	 *
+	 * @return	The expected number of strings
+	 */
+	public int getExpectedInsertions() {
+		return mExpectedInsertions;
+	}
+
+	/**
+	 * Returns the memory used by the bits of the filter.
+	 *
+	 * @return	The size of the filter in bytes
+	 */
+	public long getMemoryBytes() {
+		return mBitCount / 8;
+	}
+
+	/**
+	 * Returns the false positive rate expected for the strings added so far.
+	 *
+	 * @return	The expected false positive rate
+	 */
+	public synchronized double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) mHashCount * mInsertions / mBitCount), mHashCount);
+	}
+
+	@Override
+	public String toString() {
+		return "BloomFilter[insertions=" + getInsertions() + "/" + mExpectedInsertions
+				+ ", bytes=" + getMemoryBytes() + ", hashes=" + mHashCount
+				+ ", fpp=" + String.format("%.4f", getExpectedFalsePositiveRate()) + "]";
+	}
+
+	/**
+	 * Maps a derived hash to a bit index.
+	 *
+	 * @param combinedHash	The derived hash
+	 * @return				The bit index
+	 */
+	private long index(int combinedHash) {
+		return (combinedHash & 0xffffffffL) % mBitCount;
+	}
+
+	/**
+	 * Computes a 64 bit hash of a string, FNV-1a followed by a final mix.
+	 *
+	 * @param key	The string to hash
+	 * @return		The hash
+	 */
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
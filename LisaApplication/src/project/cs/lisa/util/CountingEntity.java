@@ -0,0 +1,89 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Wraps a request entity to count the bytes written when it is sent, so
+ * that upload throughput can be reported. The entity can optionally be
+ * sent with chunked transfer encoding, in which case no content length is
+ * announced and the wrapped entity does not have to compute one.
+ */
+public class CountingEntity extends HttpEntityWrapper {
+
+	/** Whether to send the entity with chunked transfer encoding. */
+	private final boolean mChunked;
+
+	/** The number of bytes written by the last call to writeTo. */
+	private volatile long mBytesWritten;
+
+	/**
+	 * Wraps an entity.
+	 *
+	 * @param entity	The entity to send
+	 * @param chunked	Whether to send it with chunked transfer encoding
+	 */
+	public CountingEntity(HttpEntity entity, boolean chunked) {
+		super(entity);
+		mChunked = chunked;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return mChunked || super.isChunked();
+	}
+
+	@Override
+	public long getContentLength() {
+		return mChunked ? -1 : super.getContentLength();
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(out);
+		try {
+			super.writeTo(counter);
+		} finally {
+			mBytesWritten = counter.getByteCount();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes written the last time the entity was sent.
+	 *
+	 * @return	The number of bytes written
+	 */
+	public long getBytesWritten() {
+		return mBytesWritten;
+	}
+}
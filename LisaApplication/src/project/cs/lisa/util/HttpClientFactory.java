@@ -0,0 +1,225 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/**
+ * Creates the HTTP client shared by everything in the node that talks HTTP.
+ *
+ * The client keeps its connections in a thread-safe pool, capped in total
+ * and per route, and keeps them alive between requests so that small
+ * NetInf GET, PUBLISH and SEARCH exchanges with the NRS do not pay for a
+ * new TCP handshake each. A daemon thread closes connections that have
+ * been idle for longer than the keep-alive time.
+ *
+ * Requests that need another timeout than the default set it on the
+ * request with {@link #setTimeout(HttpRequest, int)}. Every response must
+ * be consumed, for example with {@link #consume(HttpResponse)}, or its
+ * connection is never given back to the pool.
+ */
+public final class HttpClientFactory {
+
+	/** Debug tag. */
+	private static final String TAG = "HttpClientFactory";
+
+	/** Default connect and read timeout in milliseconds. */
+	public static final int DEFAULT_TIMEOUT = 5000;
+
+	/** Milliseconds to wait for a free connection from the pool. */
+	private static final long POOL_TIMEOUT = 10000;
+
+	/** Socket buffer size in bytes. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Milliseconds per second. */
+	private static final long MILLIS = 1000;
+
+	/** Not instantiable. */
+	private HttpClientFactory() {
+	}
+
+	/**
+	 * Creates a pooled, keep-alive HTTP client and starts its idle
+	 * connection evictor.
+	 *
+	 * @param maxTotal				The maximum number of open connections
+	 * @param maxPerRoute			The maximum number of open connections to one host
+	 * @param keepAliveSeconds		Seconds to keep an idle connection when the
+	 * 								server does not say otherwise
+	 * @return						The client
+	 */
+	public static HttpClient createPooledClient(int maxTotal, int maxPerRoute,
+			final int keepAliveSeconds) {
+		Log.d(TAG, "createPooledClient(" + maxTotal + ", " + maxPerRoute + ", "
+				+ keepAliveSeconds + ")");
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+		HttpConnectionParams.setConnectionTimeout(params, DEFAULT_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, DEFAULT_TIMEOUT);
+		HttpConnectionParams.setSocketBufferSize(params, BUFFER_SIZE);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		// A pooled connection may have been closed by the server while idle
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerRoute));
+		ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+		ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+		DefaultHttpClient client = new DefaultHttpClient(manager, params);
+		client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				// Honour "Keep-Alive: timeout=n" if the server sends it
+				HeaderElementIterator it = new BasicHeaderElementIterator(
+						response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+				while (it.hasNext()) {
+					HeaderElement element = it.nextElement();
+					if ("timeout".equalsIgnoreCase(element.getName())
+							&& element.getValue() != null) {
+						try {
+							return Long.parseLong(element.getValue()) * MILLIS;
+						} catch (NumberFormatException e) {
+							Log.d(TAG, "Invalid keep-alive timeout: " + element.getValue());
+						}
+					}
+				}
+				return keepAliveSeconds * MILLIS;
+			}
+		});
+
+		new IdleConnectionEvictor(manager, keepAliveSeconds).start();
+		return client;
+	}
+
+	/**
+	 * Sets the connect and read timeout of a single request, overriding
+	 * the defaults of the client executing it.
+	 *
+	 * @param request	The request
+	 * @param timeout	The timeout in milliseconds
+	 */
+	public static void setTimeout(HttpRequest request, int timeout) {
+		HttpParams params = request.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, timeout);
+		HttpConnectionParams.setSoTimeout(params, timeout);
+	}
+
+	/**
+	 * Consumes what is left of a response entity, so that the connection
+	 * it was read from goes back to the pool.
+	 *
+	 * @param response	The response, may be null
+	 */
+	public static void consume(HttpResponse response) {
+		if (response == null) {
+			return;
+		}
+		HttpEntity entity = response.getEntity();
+		if (entity == null) {
+			return;
+		}
+		try {
+			entity.consumeContent();
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to consume response entity", e);
+		}
+	}
+
+	/**
+	 * Closes expired connections and connections that have been idle for
+	 * longer than the keep-alive time.
+	 */
+	private static class IdleConnectionEvictor extends Thread {
+
+		/** The pool to evict connections from. */
+		private final ClientConnectionManager mManager;
+
+		/** Seconds a connection may stay idle. */
+		private final int mIdleSeconds;
+
+		/**
+		 * Creates a daemon evictor.
+		 *
+		 * @param manager		The pool to evict connections from
+		 * @param idleSeconds	Seconds a connection may stay idle
+		 */
+		public IdleConnectionEvictor(ClientConnectionManager manager, int idleSeconds) {
+			super("IdleConnectionEvictor");
+			mManager = manager;
+			mIdleSeconds = Math.max(1, idleSeconds);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isInterrupted()) {
+					Thread.sleep(mIdleSeconds * MILLIS / 2);
+					mManager.closeExpiredConnections();
+					mManager.closeIdleConnections(mIdleSeconds, TimeUnit.SECONDS);
+				}
+			} catch (InterruptedException e) {
+				Log.d(TAG, "IdleConnectionEvictor interrupted");
+			}
+		}
+	}
+}
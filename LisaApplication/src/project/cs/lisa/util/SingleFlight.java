@@ -0,0 +1,114 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key. The first caller runs the
+ * call, and callers that arrive while it is still running wait for it and
+ * share its result instead of running the call again. Once the call is done
+ * the next caller with that key starts a new one.
+ *
+ * @param <T>	The type of the result
+ */
+public class SingleFlight<T> {
+
+	/** The calls in flight, by key. */
+	private final ConcurrentHashMap<String, FutureTask<T>> mCalls =
+			new ConcurrentHashMap<String, FutureTask<T>>();
+
+	/** The number of callers that shared another caller's result. */
+	private final AtomicLong mSharedCount = new AtomicLong();
+
+	/**
+	 * Runs a call, or waits for the call with the same key already in flight.
+	 *
+	 * @param key			The key identifying the call
+	 * @param call			The call to run if none is in flight
+	 * @return				The result of the call
+	 * @throws Exception	What the call threw, or InterruptedException if the
+	 * 						caller was interrupted while waiting
+	 */
+	public T execute(String key, Callable<T> call) throws Exception {
+		FutureTask<T> task = new FutureTask<T>(call);
+		FutureTask<T> inFlight = mCalls.putIfAbsent(key, task);
+		if (inFlight == null) {
+			try {
+				task.run();
+			} finally {
+				mCalls.remove(key, task);
+			}
+			return getResult(task);
+		}
+		mSharedCount.incrementAndGet();
+		return share(getResult(inFlight));
+	}
+
+	/**
+	 * Prepares the result of a call for a caller that did not run it.
+	 * Override this to give each caller its own copy of a mutable result.
+	 *
+	 * @param result	The result of the call, may be null
+	 * @return			The result to give the waiting caller
+	 */
+	protected T share(T result) {
+		return result;
+	}
+
+	/**
+	 * Returns the number of callers that shared another caller's result.
+	 *
+	 * @return	The number of coalesced calls
+	 */
+	public long getSharedCount() {
+		return mSharedCount.get();
+	}
+
+	/**
+	 * Waits for a call and unwraps what it threw.
+	 *
+	 * @param task			The call
+	 * @return				The result of the call
+	 * @throws Exception	What the call threw
+	 */
+	private T getResult(FutureTask<T> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+}
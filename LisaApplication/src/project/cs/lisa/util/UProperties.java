@@ -71,6 +71,27 @@ public enum UProperties {
         return mProperties.getProperty(propertyName);
     }
 
+    /**
+     * Returns the value of a positive integer property. The default value
+     * is returned if the property is not set or is not a number, and values
+     * below 1 are raised to 1.
+     * @param propertyName The property key
+     * @param defaultValue The value to use if the property is missing or invalid
+     * @return The property value that was requested
+     */
+    public int getIntPropertyWithName(String propertyName, int defaultValue) {
+        String value = getPropertyWithName(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + propertyName + ": " + value);
+            return defaultValue;
+        }
+    }
+
     /**
      * Returns the property reference.
      * @return the property
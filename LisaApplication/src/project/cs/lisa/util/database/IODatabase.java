@@ -27,6 +27,8 @@
 package project.cs.lisa.util.database;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -43,13 +45,17 @@ import project.cs.lisa.metadata.MetadataParser;
 import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
 import project.cs.lisa.search.SearchResult;
 import project.cs.lisa.search.SearchResultImpl;
+import project.cs.lisa.util.BloomFilter;
 import project.cs.lisa.util.IOBuilder;
 import project.cs.lisa.util.UProperties;
-import android.content.ContentValues;
 import android.content.Context;
+import android.annotation.TargetApi;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 import com.google.inject.Inject;
@@ -59,6 +65,9 @@ import com.google.inject.assistedinject.Assisted;
  * The database that contains the data corresponding to an information object
  * that is stored in the device.
  * 
+ * The connection is opened on first use and kept open until {@link #close()}
+ * is called, so an instance should be shared rather than created per request.
+ * 
  * @author Harold Martinez
  * @author Kim-Anh Tran
  *
@@ -68,7 +77,7 @@ public class IODatabase
 		implements IODatabaseFactory {
 
 	/** The current database version. */
-	public static final int DATABASE_VERSION = 1;
+	public static final int DATABASE_VERSION = 2;
 	
 	/** Debug Tag. */
 	private static final String TAG = "IODatabase";
@@ -100,6 +109,61 @@ public class IODatabase
 	/** The file size of the file associated with the IO. */
 	private static final String KEY_FILE_SIZE = "file_size";
 	
+	/** The index on the url column of the url table. */
+	private static final String INDEX_URL = "IO_url_url";
+	
+	/** Creates the index used when searching by url. */
+	private static final String SQL_CREATE_URL_INDEX = "CREATE INDEX IF NOT EXISTS " 
+			+ INDEX_URL + " ON " + TABLE_URL + " (" + KEY_URL + ")";
+	
+	/** The columns of a joined row, in the order expected by {@link IORecord}. */
+	private static final String RECORD_COLUMNS = "io." + KEY_HASH + ", io." + KEY_HASH_ALGORITHM 
+			+ ", io." + KEY_CONTENT_TYPE + ", io." + KEY_FILEPATH + ", io." + KEY_FILE_SIZE 
+			+ ", u." + KEY_URL;
+	
+	/** Selects the IO of a hash, one row per url. */
+	private static final String SQL_SELECT_IO = "SELECT " + RECORD_COLUMNS 
+			+ " FROM " + TABLE_IO + " io"
+			+ " LEFT JOIN " + TABLE_URL + " u ON u." + KEY_HASH + " = io." + KEY_HASH 
+			+ " WHERE io." + KEY_HASH + " = ?";
+	
+	/** Selects the IO of a url, one row per url of that IO. */
+	private static final String SQL_SELECT_IO_BY_URL = "SELECT " + RECORD_COLUMNS 
+			+ " FROM (SELECT " + KEY_HASH + " FROM " + TABLE_URL 
+			+ " WHERE " + KEY_URL + " = ? LIMIT 1) m" 
+			+ " JOIN " + TABLE_IO + " io ON io." + KEY_HASH + " = m." + KEY_HASH 
+			+ " LEFT JOIN " + TABLE_URL + " u ON u." + KEY_HASH + " = io." + KEY_HASH;
+	
+	/** Selects the urls of a hash. */
+	private static final String SQL_SELECT_URLS = "SELECT " + KEY_URL 
+			+ " FROM " + TABLE_URL + " WHERE " + KEY_HASH + " = ?";
+	
+	/** Inserts an IO row unless the hash is already stored. */
+	private static final String SQL_INSERT_IO = "INSERT OR IGNORE INTO " + TABLE_IO + " (" 
+			+ KEY_HASH + ", " + KEY_HASH_ALGORITHM + ", " + KEY_CONTENT_TYPE + ", " 
+			+ KEY_FILEPATH + ", " + KEY_FILE_SIZE + ") VALUES (?, ?, ?, ?, ?)";
+	
+	/** Inserts a url row unless the url is already stored for the hash. */
+	private static final String SQL_INSERT_URL = "INSERT OR IGNORE INTO " + TABLE_URL + " (" 
+			+ KEY_HASH + ", " + KEY_URL + ") VALUES (?, ?)";
+	
+	/** Selects all stored hashes. */
+	private static final String SQL_SELECT_ALL_HASHES = "SELECT " + KEY_HASH + " FROM " + TABLE_IO;
+	
+	/** Selects all stored urls. */
+	private static final String SQL_SELECT_ALL_URLS = "SELECT DISTINCT " + KEY_URL 
+			+ " FROM " + TABLE_URL;
+	
+	/** Prefix of hashes in the key filter. */
+	private static final String FILTER_HASH_PREFIX = "h:";
+	
+	/** Prefix of urls in the key filter. */
+	private static final String FILTER_URL_PREFIX = "u:";
+	
+	/** Counts the IO rows of a hash. */
+	private static final String SQL_COUNT_IO = "SELECT COUNT(*) FROM " + TABLE_IO 
+			+ " WHERE " + KEY_HASH + " = ?";
+	
 	/** Meta-data label for the filepath. */
 	private final String mFilepathLabel;
 	
@@ -111,6 +175,30 @@ public class IODatabase
 	
 	/** The datamodel factory used for constructing the IO. */
 	private DatamodelFactory mDatamodelFactory;
+	
+	/** The connection shared by all operations, opened on first use. */
+	private SQLiteDatabase mDatabase;
+	
+	/** Compiled statement used by {@link #containsIO(String)}. */
+	private SQLiteStatement mCountIoStatement;
+	
+	/** Compiled statement inserting IO rows. */
+	private SQLiteStatement mInsertIoStatement;
+	
+	/** Compiled statement inserting url rows. */
+	private SQLiteStatement mInsertUrlStatement;
+	
+	/** Hashes and urls that may be stored, used to answer definite misses without a query. */
+	private volatile BloomFilter mKeyFilter;
+	
+	/** The number of keys the key filter is sized for at least. */
+	private final int mFilterExpectedKeys;
+	
+	/** The false positive rate of the key filter. */
+	private final double mFilterFalsePositiveRate;
+	
+	/** The number of deletes since the key filter was built. */
+	private int mDeletesSinceFilterBuilt;
 
 	/**
 	 * Creates a new Database for storing IO information.
@@ -123,12 +211,16 @@ public class IODatabase
 	public IODatabase(DatamodelFactory datamodelFactory, @Assisted Context context) {
 		
 		// We skip the curser object factory, since we don't need it
-		super(context, DATABASE_NAME, null, 1); 
+		super(context, DATABASE_NAME, null, DATABASE_VERSION); 
 		
 		UProperties instance = UProperties.INSTANCE;
 		mFilepathLabel = instance.getPropertyWithName("metadata.filepath");
 		mFilesizeLabel = instance.getPropertyWithName("metadata.filesize");
 		mUrlLabel = instance.getPropertyWithName("metadata.url");
+		mFilterExpectedKeys = Integer.parseInt(
+				instance.getPropertyWithName("local.filter.expected"));
+		mFilterFalsePositiveRate = Double.parseDouble(
+				instance.getPropertyWithName("local.filter.fpp"));
 		
 		mDatamodelFactory = datamodelFactory;
 	}
@@ -155,6 +247,7 @@ public class IODatabase
 		
 		db.execSQL(createIoTable);
 		db.execSQL(createUrlTable);
+		db.execSQL(SQL_CREATE_URL_INDEX);
 	}
 
 	@Override
@@ -170,10 +263,10 @@ public class IODatabase
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		Log.d(TAG, "Upgrading database to version " + newVersion);
 		
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_IO);
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_URL);
-				
-		onCreate(db);
+		if (oldVersion < 2) {
+			// Version 2 only adds the url index, the stored objects are kept
+			db.execSQL(SQL_CREATE_URL_INDEX);
+		}
 	}
 	
 
@@ -182,15 +275,210 @@ public class IODatabase
 		return new IODatabase(mDatamodelFactory, context);
 	}
 	
+	/**
+	 * Closes the shared connection and its compiled statements.
+	 * The connection is opened again on the next operation.
+	 */
+	@Override
+	public synchronized void close() {
+		if (mDatabase != null) {
+			mCountIoStatement.close();
+			mInsertIoStatement.close();
+			mInsertUrlStatement.close();
+			mDatabase = null;
+		}
+		super.close();
+	}
+	
+	/**
+	 * Returns the shared connection, opening it if necessary.
+	 * 
+	 * Statements are always run with constant SQL strings so that the
+	 * connection can reuse the statements it has compiled before.
+	 * 
+	 * @return	The open database
+	 */
+	private synchronized SQLiteDatabase getDatabase() {
+		if (mDatabase == null || !mDatabase.isOpen()) {
+			mDatabase = getWritableDatabase();
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+				enableWriteAheadLogging(mDatabase);
+			}
+			mCountIoStatement = mDatabase.compileStatement(SQL_COUNT_IO);
+			mInsertIoStatement = mDatabase.compileStatement(SQL_INSERT_IO);
+			mInsertUrlStatement = mDatabase.compileStatement(SQL_INSERT_URL);
+			rebuildKeyFilter();
+		}
+		return mDatabase;
+	}
+	
+	/**
+	 * Returns the filter over the stored hashes and urls, for example
+	 * to report its size and false positive rate.
+	 * 
+	 * @return	The key filter
+	 */
+	public BloomFilter getKeyFilter() {
+		getDatabase();
+		return mKeyFilter;
+	}
+	
+	/**
+	 * Builds the key filter from all stored hashes and urls. The filter is
+	 * sized for twice the stored keys, so it does not need to be rebuilt
+	 * for a while as new objects are added.
+	 */
+	private synchronized void rebuildKeyFilter() {
+		List<String> keys = new ArrayList<String>();
+		readColumn(SQL_SELECT_ALL_HASHES, FILTER_HASH_PREFIX, keys);
+		readColumn(SQL_SELECT_ALL_URLS, FILTER_URL_PREFIX, keys);
+		
+		BloomFilter filter = new BloomFilter(
+				Math.max(mFilterExpectedKeys, 2 * keys.size()), mFilterFalsePositiveRate);
+		for (String key : keys) {
+			filter.put(key);
+		}
+		
+		mKeyFilter = filter;
+		mDeletesSinceFilterBuilt = 0;
+		Log.d(TAG, "Rebuilt key filter: " + filter);
+	}
+	
+	/**
+	 * Reads the first column of all rows returned by a query.
+	 * 
+	 * @param sql		The query
+	 * @param prefix	The prefix to add to each value
+	 * @param values	The list to add the values to
+	 */
+	private void readColumn(String sql, String prefix, List<String> values) {
+		Cursor cursor = mDatabase.rawQuery(sql, null);
+		try {
+			while (cursor.moveToNext()) {
+				values.add(prefix + cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Checks whether a key may be stored, throwing if it definitely is not.
+	 * 
+	 * @param prefix				The prefix of the key type
+	 * @param value					The hash or url
+	 * @throws DatabaseException	Thrown, if the key is definitely not stored
+	 */
+	private void checkKeyFilter(String prefix, String value) throws DatabaseException {
+		getDatabase();
+		if (!mKeyFilter.mightContain(prefix + value)) {
+			throw new DatabaseException("The given key does not correspond to any IO : " + value);
+		}
+	}
+	
+	/**
+	 * Switches the journal to write-ahead logging, which lets lookups
+	 * run while an insert is being committed.
+	 * 
+	 * @param db	The database to configure
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void enableWriteAheadLogging(SQLiteDatabase db) {
+		if (!db.enableWriteAheadLogging()) {
+			Log.d(TAG, "Write-ahead logging is not available.");
+		}
+	}
+	
 	/**
 	 * Inserts the specified information object into the database.
+	 * If the object is already stored, only its new urls are added.
 	 * 
 	 * @param io					The information object to insert.
 	 * @throws DatabaseException 	thrown if insert operation fails
 	 */
-	@SuppressWarnings("unchecked")
 	public void addIO(InformationObject io) throws DatabaseException  {
-		Log.d(TAG, "Received an add information object call.");		
+		Log.d(TAG, "Received an add information object call.");
+		addIOs(Collections.singletonList(io));
+	}
+	
+	/**
+	 * Inserts the specified information objects into the database in a
+	 * single transaction. Objects that are already stored only get their
+	 * new urls added.
+	 * 
+	 * All objects are parsed before anything is written, so if one of them
+	 * is invalid nothing is inserted.
+	 * 
+	 * @param ios					The information objects to insert.
+	 * @throws DatabaseException 	thrown if insert operation fails
+	 */
+	public synchronized void addIOs(Collection<InformationObject> ios) throws DatabaseException {
+		List<IORecord> records = new ArrayList<IORecord>(ios.size());
+		for (InformationObject io : ios) {
+			records.add(extractRecord(io));
+		}
+		
+		SQLiteDatabase db = getDatabase();
+		db.beginTransaction();
+		try {
+			for (IORecord record : records) {
+				insertRecord(record);
+			}
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			throw new DatabaseException("Failed inserting the information objects.", e);
+		} finally {
+			db.endTransaction();
+		}
+		
+		// Only add keys that were committed
+		for (IORecord record : records) {
+			mKeyFilter.put(FILTER_HASH_PREFIX + record.getHash());
+			for (String url : record.getUrls()) {
+				mKeyFilter.put(FILTER_URL_PREFIX + url);
+			}
+		}
+		if (mKeyFilter.getInsertions() > mKeyFilter.getExpectedInsertions()) {
+			rebuildKeyFilter();
+		}
+		Log.d(TAG, "Inserted " + records.size() + " information objects.");
+	}
+	
+	/**
+	 * Inserts the rows of one information object. Has to be called
+	 * within a transaction on the shared connection.
+	 * 
+	 * @param record	The information object
+	 */
+	private void insertRecord(IORecord record) {
+		bind(mInsertIoStatement, 1, record.getHash());
+		bind(mInsertIoStatement, 2, record.getHashAlgorithm());
+		bind(mInsertIoStatement, 3, record.getContentType());
+		bind(mInsertIoStatement, 4, record.getFilePath());
+		bind(mInsertIoStatement, 5, record.getFileSize());
+		
+		if (mInsertIoStatement.executeInsert() == -1 && !containsIO(record.getHash())) {
+			// The row violated a constraint, so there is nothing to attach urls to
+			Log.e(TAG, "Invalid information object, skipping: " + record.getHash());
+			return;
+		}
+		
+		for (String url : record.getUrls()) {
+			bind(mInsertUrlStatement, 1, record.getHash());
+			bind(mInsertUrlStatement, 2, url);
+			mInsertUrlStatement.executeInsert();
+		}
+	}
+	
+	/**
+	 * Extracts the record to store from an information object.
+	 * 
+	 * @param io					The information object
+	 * @return						The record to store
+	 * @throws DatabaseException	Thrown, if the meta-data could not be extracted
+	 */
+	@SuppressWarnings("unchecked")
+	private IORecord extractRecord(InformationObject io) throws DatabaseException {
 		// Extract the field values for inserting them into the database tables
 		Identifier identifier = io.getIdentifier();
 		String hash = identifier.getIdentifierLabel(
@@ -208,57 +496,33 @@ public class IODatabase
 		String filePath = (String) metadataMap.get(mFilepathLabel);
 		String fileSize = (String) metadataMap.get(mFilesizeLabel);
 		
-		//Create list of URLs
+		//Populate the url list with one or several URLs
+		List<String> urls;
 		Object urlJsonObject = metadataMap.get(mUrlLabel);
-		
-		//Populate urlList with one or several URLs
-		List<String> urlList;
-		if (urlJsonObject instanceof ArrayList) {
-			urlList  = (List<String>) ((ArrayList<String>) urlJsonObject).clone();
+		if (urlJsonObject instanceof List) {
+			urls = (List<String>) urlJsonObject;
 		} else {
-			String url = (String) urlJsonObject;
-			urlList = new ArrayList<String>();
-			urlList.add(url);
+			urls = Collections.singletonList((String) urlJsonObject);
 		}
-			
-		if (!containsIO(hash)) {
-			Log.d(TAG, "New information object will be inserted into database.");
-			//Insert the IO
-			ContentValues ioEntry = 
-					createIOEntry(hash, hashAlgorithm, contentType, filePath, fileSize);
-			
-			insert(TABLE_IO, ioEntry);
-		} else {
-			Log.d(TAG, "Information object already exists in database.");
-			//Check if the URLs that we want to insert already exist
-			List<String> storedUrls = getURLs(hash);
-			urlList.removeAll(storedUrls);	
-		}
-				
-		Log.d(TAG, "Inserting the following URLs:");
-		//Insert the URLs
-		for (String url : urlList) {
-			Log.d(TAG, url);
-			ContentValues urlEntry = createUrlEntry(hash, url);
-			insert(TABLE_URL, urlEntry);
-		}	
-
+		
+		return new IORecord(hash, hashAlgorithm, contentType, filePath, fileSize, urls);
 	}
 	
 	/**
-	 * Inserts a value in the database.
+	 * Binds a value that may be null to a statement.
 	 * 
-	 * @param table		the table where the values will be inserted
-	 * @param values	the values that will be inserted
+	 * @param statement	The statement
+	 * @param index		The 1-based index of the argument
+	 * @param value		The value to bind
 	 */
-	private void insert(String table, ContentValues values) {
-		SQLiteDatabase db = this.getWritableDatabase();
-		
-		db.insert(table, null, values);	
-		
-		db.close();
+	private static void bind(SQLiteStatement statement, int index, String value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindString(index, value);
+		}
 	}
-
+	
 	/**
 	 * Returns the list of URL associated with a hash.
 	 * 
@@ -269,20 +533,17 @@ public class IODatabase
 	public List<String> getURLs(String hash) {
 		List<String> urlList = new ArrayList<String>();
 
-		Cursor cursor = null;
+		Cursor cursor = getDatabase().rawQuery(SQL_SELECT_URLS, new String[] {hash});
 		try {
-			cursor = query(TABLE_URL, KEY_HASH, hash);
-		} catch (DatabaseException e) {
-			return urlList;
+			while (cursor.moveToNext()) {
+				urlList.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
 		}
-		do {
-			urlList.add(cursor.getString(1));
-		} while (cursor.moveToNext());
 		return urlList;
 	}
 	
-	
-	
 	/**
 	 * Returns the information object specified by the hash value, if existent.
 	 * 
@@ -292,23 +553,21 @@ public class IODatabase
 	 */
 	public InformationObject getIO(String hash) throws DatabaseException {
 		Log.d(TAG, "Searching for information object.");
-		Cursor cursor = query(TABLE_IO, KEY_HASH, hash);
-		
+		checkKeyFilter(FILTER_HASH_PREFIX, hash);
+		IORecord record = queryRecord(SQL_SELECT_IO, hash);
 		Log.d(TAG, "Found information object.");
 		
 		IOBuilder builder = new IOBuilder(mDatamodelFactory);
-		builder.setHash(cursor.getString(0))
-			.setHashAlgorithm(cursor.getString(1))
-			.setContentType(cursor.getString(2))
-			.addFilePathLocator(cursor.getString(3))
-			.addMetaData(mFilepathLabel, cursor.getString(3))
-			.addMetaData(mFilesizeLabel, cursor.getString(4));
+		builder.setHash(record.getHash())
+			.setHashAlgorithm(record.getHashAlgorithm())
+			.setContentType(record.getContentType())
+			.addFilePathLocator(record.getFilePath())
+			.addMetaData(mFilepathLabel, record.getFilePath())
+			.addMetaData(mFilesizeLabel, record.getFileSize());
 		
-		cursor = query(TABLE_URL, KEY_HASH, hash);
-
-		do {
-			builder.addMetaData(mUrlLabel, cursor.getString(1));
-		} while (cursor.moveToNext());
+		for (String url : record.getUrls()) {
+			builder.addMetaData(mUrlLabel, url);
+		}
 		
 		return builder.build();
 	}
@@ -323,25 +582,17 @@ public class IODatabase
 	 * 								to any stored information object
 	 */
 	public SearchResult searchIO(String url) throws DatabaseException {		
-		Metadata metadata = new Metadata();
-		
-		// Find the hash identification of the corresponding object
-		Cursor cursor = query(TABLE_URL, KEY_URL, url);
-		String hash = cursor.getString(0);
+		checkKeyFilter(FILTER_URL_PREFIX, url);
+		IORecord record = queryRecord(SQL_SELECT_IO_BY_URL, url);
 		
-		// Add all url fields
-		cursor = query(TABLE_URL, KEY_HASH, hash);
-		do {
-			metadata.insert(KEY_URL, cursor.getString(1));
-		} while (cursor.moveToNext());
-		
-		// Build the metadata corresponding to the hash
-		cursor = query(TABLE_IO, KEY_HASH, hash);
-		
-		metadata.insert(mFilepathLabel, cursor.getString(3));
-		metadata.insert(mFilesizeLabel, cursor.getString(4));
+		Metadata metadata = new Metadata();
+		for (String storedUrl : record.getUrls()) {
+			metadata.insert(KEY_URL, storedUrl);
+		}
+		metadata.insert(mFilepathLabel, record.getFilePath());
+		metadata.insert(mFilesizeLabel, record.getFileSize());
 
-		return new SearchResultImpl(hash, metadata);
+		return new SearchResultImpl(record.getHash(), metadata);
 	}
 
 	/**
@@ -350,12 +601,15 @@ public class IODatabase
 	 * 
 	 * @param hash	The hash value identifying the information object.
 	 */
-	public void deleteIO(String hash) {
+	public synchronized void deleteIO(String hash) {
 		Log.d(TAG, "Deleting io corresponding to the following hash: " + hash);
-		SQLiteDatabase db = getWritableDatabase();
+		getDatabase().delete(TABLE_IO, KEY_HASH + " = ?", new String[] {hash});
 		
-		db.delete(TABLE_IO, KEY_HASH + " = ?", new String[] {hash});
-		db.close();
+		// Deleted keys stay in the filter and only cost a query, until there are many
+		mDeletesSinceFilterBuilt++;
+		if (mDeletesSinceFilterBuilt > mKeyFilter.getExpectedInsertions() / 10) {
+			rebuildKeyFilter();
+		}
 	}
 	
 	/**
@@ -395,68 +649,23 @@ public class IODatabase
 	}
 	
 	/**
-	 * Returns a content value object representing an entry in the IO table.
+	 * Runs a join query with one argument and reads the resulting record.
 	 * 
-	 * @param hash			The hash value of the IO
-	 * @param hashAlgorithm The hash algorithm
-	 * @param contentType	The content type
-	 * @param filePath		The file path
-	 * @param fileSize		The file size
-	 * @return				The corresponding content value
+	 * @param sql					The query, returning rows as expected by {@link IORecord}
+	 * @param value					The argument of the query
+	 * @return						The record
+	 * @throws DatabaseException	Thrown, if the query did not return any rows
 	 */
-	private ContentValues createIOEntry(
-			String hash, String hashAlgorithm, String contentType, 
-			String filePath, String fileSize) {
-		
-		ContentValues ioEntry = new ContentValues();
-		
-		ioEntry.put(KEY_HASH, hash);
-		ioEntry.put(KEY_HASH_ALGORITHM, hashAlgorithm);
-		ioEntry.put(KEY_CONTENT_TYPE, contentType);
-		
-		ioEntry.put(KEY_FILEPATH, filePath);
-		ioEntry.put(KEY_FILE_SIZE, fileSize);
-		
-		return ioEntry;
-	}
-	
-	/**
-	 * Returns a content value object representing an entry in the IO_url table.
-	 * 
-	 * @param hash	The hash value of the IO
-	 * @param url	The url where it can be found
-	 * @return		The corresponding content value
-	 */
-	private ContentValues createUrlEntry(String hash, String url) {
-		ContentValues urlEntry = new ContentValues();	
-		urlEntry.put(KEY_HASH, hash);
-		urlEntry.put(KEY_URL, url);
-		return urlEntry;
-	}
-	
-	/**
-	 * Querys the database and returns a cursor.
-	 * 
-	 * @param table					The table in which we want to query
-	 * @param key					The key
-	 * @param value					The corresponding value
-	 * @return						A cursor pointing to the first row of results
-	 * @throws DatabaseException	Thrown, if no entry was found for the specified key value pair
-	 */
-	private Cursor query(String table, String key, String value) throws DatabaseException {
-		SQLiteDatabase db = this.getReadableDatabase();
-
-		Cursor cursor = db.query(table, null, key + "=?", 
-				new String[]{value}, null, null, null);
-		
-		if (cursor != null && cursor.getCount() != 0) {
-			cursor.moveToFirst();
-		} else {
-			throw new DatabaseException("The given key does not correspond to any IO : " + key);
+	private IORecord queryRecord(String sql, String value) throws DatabaseException {
+		Cursor cursor = getDatabase().rawQuery(sql, new String[] {value});
+		try {
+			if (!cursor.moveToFirst()) {
+				throw new DatabaseException("The given key does not correspond to any IO : " + value);
+			}
+			return IORecord.read(cursor);
+		} finally {
+			cursor.close();
 		}
-		db.close();
-		
-		return cursor;
 	}
 	
 	/**
@@ -466,18 +675,11 @@ public class IODatabase
 	 * @return		false if the hash does not exist
 	 *				true if it does
 	 */
-	private boolean containsIO(String hash) {
-		try {
-			//Check if the IO we want to insert already exists
-			query(TABLE_IO, KEY_HASH, hash);
-		} catch (DatabaseException e) {
-			/* 
-			 * This exception is thrown if the query is empty, 
-			 * in that case we say that the IO is not stored
-			 */
-			return false;
-		}
-		return true;
+	private synchronized boolean containsIO(String hash) {
+		// Opening the database also compiles the statement
+		getDatabase();
+		mCountIoStatement.bindString(1, hash);
+		return mCountIoStatement.simpleQueryForLong() > 0;
 	}
 
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Ericsson, Uppsala University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Uppsala University
+ *
+ * Project CS course, Fall 2012
+ *
+ * Projekt DV/Project CS, is a course in which the students develop software for
+ * distributed systems. The aim of the course is to give insights into how a big
+ * project is run (from planning to realization), how to construct a complex
+ * distributed system and to give hands-on experience on modern construction
+ * principles and programming methods.
+ *
+ */
+package project.cs.lisa.util.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+
+/**
+ * One information object as it is stored in the IODatabase: a row of the
+ * IO table together with the urls of the IO_url table.
+ * 
+ * Records are read from the result of a join that returns one row per url,
+ * with the IO columns first and the url last.
+ *
+ */
+final class IORecord {
+
+	/** Column index of the hash in a joined row. */
+	static final int COLUMN_HASH = 0;
+	
+	/** Column index of the hash algorithm in a joined row. */
+	static final int COLUMN_HASH_ALGORITHM = 1;
+	
+	/** Column index of the content type in a joined row. */
+	static final int COLUMN_CONTENT_TYPE = 2;
+	
+	/** Column index of the file path in a joined row. */
+	static final int COLUMN_FILEPATH = 3;
+	
+	/** Column index of the file size in a joined row. */
+	static final int COLUMN_FILE_SIZE = 4;
+	
+	/** Column index of the url in a joined row. */
+	static final int COLUMN_URL = 5;
+	
+	/** The hash value. */
+	private final String mHash;
+	
+	/** The hash algorithm. */
+	private final String mHashAlgorithm;
+	
+	/** The content type. */
+	private final String mContentType;
+	
+	/** The file path. */
+	private final String mFilePath;
+	
+	/** The file size. */
+	private final String mFileSize;
+	
+	/** The urls where the content can be found. */
+	private final List<String> mUrls;
+
+	/**
+	 * Creates a record.
+	 * 
+	 * @param hash			The hash value
+	 * @param hashAlgorithm	The hash algorithm
+	 * @param contentType	The content type
+	 * @param filePath		The file path
+	 * @param fileSize		The file size
+	 * @param urls			The urls where the content can be found
+	 */
+	IORecord(String hash, String hashAlgorithm, String contentType,
+			String filePath, String fileSize, List<String> urls) {
+		mHash = hash;
+		mHashAlgorithm = hashAlgorithm;
+		mContentType = contentType;
+		mFilePath = filePath;
+		mFileSize = fileSize;
+		mUrls = urls;
+	}
+	
+	/**
+	 * Reads a record from a joined result, starting at the current row and
+	 * consuming all rows. Rows without url add no url to the record.
+	 * 
+	 * @param cursor	A cursor positioned on the first row of the record
+	 * @return			The record
+	 */
+	static IORecord read(Cursor cursor) {
+		List<String> urls = new ArrayList<String>(cursor.getCount());
+		IORecord record = new IORecord(
+				cursor.getString(COLUMN_HASH),
+				cursor.getString(COLUMN_HASH_ALGORITHM),
+				cursor.getString(COLUMN_CONTENT_TYPE),
+				cursor.getString(COLUMN_FILEPATH),
+				cursor.getString(COLUMN_FILE_SIZE),
+				urls);
+		
+		do {
+			if (!cursor.isNull(COLUMN_URL)) {
+				urls.add(cursor.getString(COLUMN_URL));
+			}
+		} while (cursor.moveToNext());
+		
+		return record;
+	}
+
+	/**
+	 * @return	The hash value
+	 */
+	String getHash() {
+		return mHash;
+	}
+
+	/**
+	 * @return	The hash algorithm
+	 */
+	String getHashAlgorithm() {
+		return mHashAlgorithm;
+	}
+
+	/**
+	 * @return	The content type
+	 */
+	String getContentType() {
+		return mContentType;
+	}
+
+	/**
+	 * @return	The file path
+	 */
+	String getFilePath() {
+		return mFilePath;
+	}
+
+	/**
+	 * @return	The file size
+	 */
+	String getFileSize() {
+		return mFileSize;
+	}
+
+	/**
+	 * @return	The urls where the content can be found
+	 */
+	List<String> getUrls() {
+		return mUrls;
+	}
+}
@@ -0,0 +1,74 @@
+package project.cs.lisa.bluetooth.test;
+
+import java.util.List;
+
+import project.cs.lisa.bluetooth.NeighborTable;
+import project.cs.lisa.bluetooth.NeighborTable.Neighbor;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the table of Bluetooth devices seen by the discovery.
+ */
+public class NeighborTableTest extends AndroidTestCase {
+
+    /** The MAC address of a device. */
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    /** Milliseconds a device is kept. */
+    private static final long TTL = 1000;
+
+    /** The current time of the table under test, in milliseconds. */
+    private long mNow;
+
+    /** The table under test, with a clock the test controls. */
+    private NeighborTable mTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mNow = 0;
+        mTable = new NeighborTable(TTL) {
+            @Override
+            protected long now() {
+                return mNow;
+            }
+        };
+    }
+
+    /**
+     * Checks that a device is recorded with its signal strength and that
+     * seeing it again refreshes it.
+     */
+    public void testUpdate() {
+        assertNull(mTable.get(ADDRESS));
+        mTable.update(ADDRESS, (short) -60);
+
+        mNow = TTL;
+        mTable.update(ADDRESS, (short) -70);
+        Neighbor neighbor = mTable.get(ADDRESS);
+        assertEquals(-70, neighbor.getRssi());
+        assertEquals(TTL, neighbor.getLastSeen());
+
+        mNow = 2 * TTL;
+        assertNotNull(mTable.get(ADDRESS));
+    }
+
+    /**
+     * Checks that devices not seen for too long are dropped.
+     */
+    public void testExpiry() {
+        mTable.update(ADDRESS, Neighbor.UNKNOWN_RSSI);
+        mNow = TTL / 2;
+        mTable.update("66:77:88:99:AA:BB", (short) -50);
+
+        mNow = TTL + 1;
+        List<String> addresses = mTable.getAddresses();
+        assertEquals(1, addresses.size());
+        assertEquals("66:77:88:99:AA:BB", addresses.get(0));
+        assertNull(mTable.get(ADDRESS));
+        assertEquals(1, mTable.size());
+
+        mTable.clear();
+        assertTrue(mTable.getAddresses().isEmpty());
+    }
+}
@@ -0,0 +1,161 @@
+package project.cs.lisa.hash.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.hash.FolderHasher;
+import project.cs.lisa.hash.Hash;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests the content hasher.
+ */
+public class ContentHasherTest extends AndroidTestCase {
+
+    /** Debug tag. */
+    private static final String TAG = "ContentHasherTest";
+
+    /** Size of the small input used for timing. */
+    private static final int SMALL_SIZE = 1024;
+
+    /** Size of the large input used for timing. */
+    private static final int LARGE_SIZE = 4 * 1024 * 1024;
+
+    /** The hasher under test. */
+    private ContentHasher mHasher = ContentHasher.INSTANCE;
+
+    /**
+     * Checks that all entry points produce the same hash as {@link Hash}.
+     */
+    public void testEntryPointsAgree() throws Exception {
+        byte[] data = randomData(100000);
+        String expected = new Hash(data).encodeResult();
+
+        assertEquals(expected, mHasher.hash(data));
+        assertEquals(expected, mHasher.hash(ByteBuffer.wrap(data)));
+        assertEquals(expected, mHasher.hash(new ByteArrayInputStream(data)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        assertEquals(expected, mHasher.hash(direct));
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        assertEquals(expected, mHasher.hash(new ByteArrayInputStream(data), copy));
+        assertTrue(Arrays.equals(data, copy.toByteArray()));
+
+        File file = new File(getContext().getCacheDir(), "content-hasher-test");
+        try {
+            FileUtils.writeByteArrayToFile(file, data);
+            assertEquals(expected, mHasher.hash(file));
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Checks that mapped hashing of files larger than one window and
+     * hashing a whole folder agree with hashing the data in memory.
+     */
+    public void testLargeFilesAndFolder() throws Exception {
+        File folder = new File(getContext().getCacheDir(), "content-hasher-folder");
+        FileUtils.forceMkdir(folder);
+
+        try {
+            Map<File, String> expected = new HashMap<File, String>();
+            int[] sizes = {0, SMALL_SIZE, LARGE_SIZE + 1, 2 * LARGE_SIZE + 3};
+            for (int i = 0; i < sizes.length; i++) {
+                byte[] data = randomData(sizes[i]);
+                File file = new File(folder, "file" + i);
+                FileUtils.writeByteArrayToFile(file, data);
+                expected.put(file, mHasher.hash(data));
+                assertEquals(expected.get(file), mHasher.hash(file));
+            }
+
+            assertEquals(expected, new FolderHasher(2).hashFolder(folder));
+        } finally {
+            FileUtils.deleteQuietly(folder);
+        }
+    }
+
+    /**
+     * Checks that truncated and base64url hashes are accepted and others are not.
+     */
+    public void testMatches() {
+        byte[] data = randomData(SMALL_SIZE);
+        String hash = mHasher.hash(data);
+
+        assertTrue(mHasher.matches(data, hash));
+        assertTrue(mHasher.matches(data, hash.substring(0, 10)));
+        assertTrue(mHasher.matches(data, hash.replace('+', '-').replace('/', '_')));
+        assertFalse(mHasher.matches(data, mHasher.hash(new byte[0])));
+        assertFalse(mHasher.matches(data, ""));
+    }
+
+    /**
+     * Checks that a digest computed while streaming matches like the data it came from.
+     */
+    public void testMatchesStreamedDigest() {
+        byte[] data = randomData(SMALL_SIZE);
+        MessageDigest digest = Hash.createDigest();
+        digest.update(data, 0, data.length / 2);
+        digest.update(data, data.length / 2, data.length - data.length / 2);
+        String streamed = Hash.encodeDigest(digest.digest(), 0);
+
+        assertTrue(mHasher.matchesHash(streamed, mHasher.hash(data).substring(0, 10)));
+        assertFalse(mHasher.matchesHash(streamed, mHasher.hash(new byte[0])));
+        assertFalse(mHasher.matchesHash(streamed, null));
+    }
+
+    /**
+     * Logs the hashing throughput for small and large inputs.
+     * There are no assertions on time.
+     */
+    public void testThroughput() {
+        logThroughput("1 KB", randomData(SMALL_SIZE), 2000);
+        logThroughput("4 MB", randomData(LARGE_SIZE), 5);
+    }
+
+    /**
+     * Hashes data repeatedly and logs the throughput.
+     *
+     * @param label         Describes the input in the log
+     * @param data          The data to hash
+     * @param iterations    The number of times to hash the data
+     */
+    private void logThroughput(String label, byte[] data, int iterations) {
+        mHasher.hash(data);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mHasher.hash(data);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double megabytes = (double) data.length * iterations / (1024 * 1024);
+        Log.d(TAG, label + ": " + elapsed / iterations / 1000 + " us/op, "
+                + Math.round(megabytes / (elapsed / 1e9)) + " MB/s");
+    }
+
+    /**
+     * Creates reproducible random data.
+     *
+     * @param size  The number of bytes
+     * @return      The data
+     */
+    private byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
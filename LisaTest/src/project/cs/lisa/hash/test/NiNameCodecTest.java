@@ -0,0 +1,108 @@
+package project.cs.lisa.hash.test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import project.cs.lisa.hash.Hash;
+import project.cs.lisa.hash.NiNameCodec;
+import project.cs.lisa.hash.NiNameCodec.Alphabet;
+import android.test.AndroidTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * Tests the encoding of the hash part of ni names.
+ */
+public class NiNameCodecTest extends AndroidTestCase {
+
+    /** Debug tag. */
+    private static final String TAG = "NiNameCodecTest";
+
+    /** SHA-256 of the empty string in base64. */
+    private static final String EMPTY_BASE64 = "47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU";
+
+    /** SHA-256 of the empty string in base64url. */
+    private static final String EMPTY_BASE64URL = "47DEQpj8HBSa-_TImW-5JCeuQeRkm5NMpJWZG3hSuFU";
+
+    /** Number of digests encoded in the timing test. */
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * Checks the encoding against known digests in both alphabets.
+     */
+    public void testKnownDigests() throws Exception {
+        byte[] digest = MessageDigest.getInstance(Hash.ALGORITHM).digest(new byte[0]);
+
+        assertEquals(EMPTY_BASE64, new NiNameCodec(Alphabet.BASE64).encode(digest));
+        assertEquals(EMPTY_BASE64URL, new NiNameCodec(Alphabet.BASE64URL).encode(digest));
+        assertEquals(EMPTY_BASE64, new Hash(new byte[0]).encodeResult());
+        assertEquals(EMPTY_BASE64.substring(0, 3), new Hash(new byte[0]).encodeResult(3));
+    }
+
+    /**
+     * Checks that encoding matches the platform encoder and decodes back
+     * for every remainder of the input length.
+     */
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        NiNameCodec codec = new NiNameCodec(Alphabet.BASE64URL);
+        int flags = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+        for (int length = 0; length < 70; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            String encoded = codec.encode(data);
+            assertEquals(Base64.encodeToString(data, flags), encoded);
+            assertTrue(Arrays.equals(data, codec.decode(encoded)));
+            assertTrue(Arrays.equals(data, codec.decode(encoded + "==".substring(0, (4 - encoded.length() % 4) % 4))));
+        }
+    }
+
+    /**
+     * Checks that characters outside the alphabet are rejected.
+     */
+    public void testDecodeIllegalCharacter() {
+        try {
+            new NiNameCodec(Alphabet.BASE64URL).decode(EMPTY_BASE64);
+            fail("Decoding '+' and '/' as base64url should fail.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Compares the time to encode SHA-256 digests with the platform encoder.
+     * Results are written to the log; there are no assertions on time.
+     */
+    public void testEncodeTiming() {
+        byte[] digest = new byte[32];
+        new Random(7).nextBytes(digest);
+        NiNameCodec codec = new NiNameCodec(Alphabet.BASE64);
+        int flags = Base64.NO_PADDING | Base64.NO_WRAP;
+        int sink = 0;
+
+        // Warm up both paths before measuring
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            sink += codec.encode(digest).length();
+            sink += Base64.encodeToString(digest, flags).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.encode(digest).length();
+        }
+        long codecTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += Base64.encodeToString(digest, flags).length();
+        }
+        long platformTime = System.nanoTime() - start;
+
+        Log.d(TAG, "NiNameCodec: " + codecTime / ITERATIONS + " ns/op, "
+                + "android.util.Base64: " + platformTime / ITERATIONS + " ns/op "
+                + "(" + sink + ")");
+    }
+}
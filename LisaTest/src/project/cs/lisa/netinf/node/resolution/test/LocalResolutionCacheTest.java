@@ -0,0 +1,94 @@
+package project.cs.lisa.netinf.node.resolution.test;
+
+import java.util.Arrays;
+
+import netinf.common.datamodel.DatamodelFactory;
+import netinf.common.datamodel.InformationObject;
+import netinf.common.datamodel.impl.DatamodelFactoryImpl;
+import project.cs.lisa.metadata.Metadata;
+import project.cs.lisa.netinf.common.datamodel.SailDefinedLabelName;
+import project.cs.lisa.netinf.node.resolution.LocalResolutionCache;
+import project.cs.lisa.search.SearchResultImpl;
+import project.cs.lisa.util.IOBuilder;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the cache in front of the local database.
+ */
+public class LocalResolutionCacheTest extends AndroidTestCase {
+
+	/** The hash of the cached object. */
+	private static final String HASH = "111";
+
+	/** The url of the cached object. */
+	private static final String URL = "www.dn.se";
+
+	/** The cache under test. */
+	private LocalResolutionCache mCache;
+
+	/** The cached information object. */
+	private InformationObject mIo;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCache = new LocalResolutionCache(64);
+
+		DatamodelFactory datamodelFactory = new DatamodelFactoryImpl();
+		mIo = new IOBuilder(datamodelFactory).setHash(HASH)
+				.setHashAlgorithm("sha-256")
+				.setContentType("text/plain")
+				.addMetaData("url", URL).build();
+	}
+
+	/**
+	 * Checks that lookups are counted as hits and misses.
+	 */
+	public void testHitsAndMisses() {
+		assertNull(mCache.getIO(HASH));
+		mCache.putIO(HASH, mIo);
+		assertNotNull(mCache.getIO(HASH));
+
+		assertNull(mCache.getSearchResult(URL));
+		mCache.putSearchResult(URL, new SearchResultImpl(HASH, new Metadata("url", URL)));
+		assertEquals(HASH, mCache.getSearchResult(URL).getHash());
+
+		assertEquals(2, mCache.getHitCount());
+		assertEquals(2, mCache.getMissCount());
+	}
+
+	/**
+	 * Checks that changing a returned object does not change the cached one.
+	 */
+	public void testReturnsCopies() {
+		mCache.putIO(HASH, mIo);
+		InformationObject copy = mCache.getIO(HASH);
+		String hashLabel = SailDefinedLabelName.HASH_CONTENT.getLabelName();
+		copy.getIdentifier().removeIdentifierLabel(hashLabel);
+
+		assertEquals(HASH, mCache.getIO(HASH).getIdentifier()
+				.getIdentifierLabel(hashLabel).getLabelValue());
+	}
+
+	/**
+	 * Checks that puts and deletes remove the affected entries and keep
+	 * the others.
+	 */
+	public void testInvalidation() {
+		mCache.putIO(HASH, mIo);
+		mCache.putSearchResult(URL, new SearchResultImpl(HASH, new Metadata("url", URL)));
+		mCache.putSearchResult("www.svt.se", new SearchResultImpl("222", new Metadata("url", URL)));
+		mCache.invalidateOnPut(HASH, Arrays.asList(URL));
+		assertNull(mCache.getIO(HASH));
+		assertNull(mCache.getSearchResult(URL));
+		assertNotNull(mCache.getSearchResult("www.svt.se"));
+
+		mCache.putIO(HASH, mIo);
+		mCache.putSearchResult(URL, new SearchResultImpl(HASH, new Metadata("url", URL)));
+		mCache.putSearchResult("www.svt.se", new SearchResultImpl("222", new Metadata("url", URL)));
+		mCache.invalidateOnDelete(HASH);
+		assertNull(mCache.getIO(HASH));
+		assertNull(mCache.getSearchResult(URL));
+		assertNotNull(mCache.getSearchResult("www.svt.se"));
+	}
+}
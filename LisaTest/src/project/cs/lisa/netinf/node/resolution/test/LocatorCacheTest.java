@@ -0,0 +1,103 @@
+package project.cs.lisa.netinf.node.resolution.test;
+
+import netinf.common.datamodel.InformationObject;
+import netinf.common.datamodel.impl.DatamodelFactoryImpl;
+import project.cs.lisa.netinf.node.resolution.LocatorCache;
+import project.cs.lisa.util.IOBuilder;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the cache of locators returned by the NRS.
+ */
+public class LocatorCacheTest extends AndroidTestCase {
+
+	/** The key of the cached object. */
+	private static final String KEY = "sha-256;111";
+
+	/** Seconds an entry is fresh. */
+	private static final int TTL = 60;
+
+	/** Seconds a stale entry is served. */
+	private static final int MAX_STALE = 600;
+
+	/** The current time of the cache under test, in milliseconds. */
+	private long mNow;
+
+	/** The cache under test, with a clock the test controls. */
+	private LocatorCache mCache;
+
+	/** The cached information object. */
+	private InformationObject mIo;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mNow = 0;
+		mCache = new LocatorCache(2, TTL, MAX_STALE) {
+			@Override
+			protected long now() {
+				return mNow;
+			}
+		};
+		mIo = new IOBuilder(new DatamodelFactoryImpl()).setHash("111")
+				.setHashAlgorithm("sha-256")
+				.setContentType("text/plain").build();
+	}
+
+	/**
+	 * Checks that fresh entries are served without a refresh.
+	 */
+	public void testFreshEntry() {
+		assertNull(mCache.get(KEY));
+		mCache.put(KEY, mIo);
+		mNow = TTL * 1000;
+		assertNotNull(mCache.get(KEY));
+		assertFalse(mCache.beginRefresh(KEY));
+	}
+
+	/**
+	 * Checks that stale entries are served and refreshed by one caller at a time.
+	 */
+	public void testStaleWhileRevalidate() {
+		mCache.put(KEY, mIo);
+		mNow = TTL * 1000 + 1;
+		assertNotNull(mCache.get(KEY));
+		assertTrue(mCache.beginRefresh(KEY));
+		assertFalse(mCache.beginRefresh(KEY));
+
+		mCache.put(KEY, mIo);
+		assertFalse(mCache.beginRefresh(KEY));
+		mNow = 2 * (TTL * 1000 + 1);
+		assertTrue(mCache.beginRefresh(KEY));
+		mCache.endRefresh(KEY);
+		assertTrue(mCache.beginRefresh(KEY));
+	}
+
+	/**
+	 * Checks that entries stale for too long are dropped.
+	 */
+	public void testExpiredEntry() {
+		mCache.put(KEY, mIo);
+		mNow = (TTL + MAX_STALE) * 1000 + 1;
+		assertNull(mCache.get(KEY));
+		assertEquals(0, mCache.size());
+	}
+
+	/**
+	 * Checks invalidation, clearing and the size bound.
+	 */
+	public void testEviction() {
+		mCache.put(KEY, mIo);
+		mCache.invalidate(KEY);
+		assertNull(mCache.get(KEY));
+
+		mCache.put("a", mIo);
+		mCache.put("b", mIo);
+		mCache.put("c", mIo);
+		assertEquals(2, mCache.size());
+		assertNull(mCache.get("a"));
+
+		mCache.clear();
+		assertEquals(0, mCache.size());
+	}
+}
@@ -0,0 +1,301 @@
+package project.cs.lisa.netinf.node.resolution.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import android.util.Log;
+
+/**
+ * A minimal stand-in for the NRS, answering NetInf GETs with locators over
+ * plain HTTP on a local port. It answers single GETs on /netinfproto/get and,
+ * unless turned off, batch GETs on /netinfproto/getbatch with one JSON object
+ * per line.
+ */
+public class MockNrs implements Runnable {
+
+	/** Debug tag. */
+	private static final String TAG = "MockNrs";
+
+	/** Path of single GETs. */
+	private static final String GET_PATH = "/netinfproto/get";
+
+	/** Path of batch GETs. */
+	private static final String BATCH_GET_PATH = "/netinfproto/getbatch";
+
+	/** The listening socket. */
+	private final ServerSocket mServerSocket;
+
+	/** The locators of the known objects, by ni URI. */
+	private final Map<String, String> mLocators = new HashMap<String, String>();
+
+	/** The number of requests received, by path. */
+	private final Map<String, AtomicInteger> mRequests = new HashMap<String, AtomicInteger>();
+
+	/** Whether batch GETs are answered. */
+	private volatile boolean mBatchSupported = true;
+
+	/**
+	 * Starts the stand-in on a free local port.
+	 *
+	 * @throws IOException	In case the port could not be opened
+	 */
+	public MockNrs() throws IOException {
+		mServerSocket = new ServerSocket(0);
+		mRequests.put(GET_PATH, new AtomicInteger());
+		mRequests.put(BATCH_GET_PATH, new AtomicInteger());
+		Thread thread = new Thread(this, TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the port the stand-in listens on.
+	 *
+	 * @return	The port
+	 */
+	public int getPort() {
+		return mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Makes an object known, with one Bluetooth locator.
+	 *
+	 * @param uri		The ni URI of the object
+	 * @param locator	The locator
+	 */
+	public synchronized void addObject(String uri, String locator) {
+		mLocators.put(uri, locator);
+	}
+
+	/**
+	 * Turns the answering of batch GETs on or off.
+	 *
+	 * @param supported	Whether batch GETs are answered
+	 */
+	public void setBatchSupported(boolean supported) {
+		mBatchSupported = supported;
+	}
+
+	/**
+	 * Returns the number of single GETs received.
+	 *
+	 * @return	The number of single GETs
+	 */
+	public int getSingleRequests() {
+		return mRequests.get(GET_PATH).get();
+	}
+
+	/**
+	 * Returns the number of batch GETs received.
+	 *
+	 * @return	The number of batch GETs
+	 */
+	public int getBatchRequests() {
+		return mRequests.get(BATCH_GET_PATH).get();
+	}
+
+	/**
+	 * Stops the stand-in.
+	 */
+	public void close() {
+		try {
+			mServerSocket.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to close", e);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!mServerSocket.isClosed()) {
+			try {
+				final Socket socket = mServerSocket.accept();
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				}).start();
+			} catch (IOException e) {
+				Log.d(TAG, "Stopped accepting: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Answers one request and closes the connection.
+	 *
+	 * @param socket	The connection
+	 */
+	private void handle(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			String requestLine = readLine(in);
+			int contentLength = 0;
+			String header;
+			while ((header = readLine(in)).length() > 0) {
+				if (header.toLowerCase().startsWith("content-length:")) {
+					contentLength = Integer.parseInt(header.substring(15).trim());
+				}
+			}
+			byte[] body = new byte[contentLength];
+			int read = 0;
+			while (read < contentLength) {
+				int n = in.read(body, read, contentLength - read);
+				if (n < 0) {
+					break;
+				}
+				read += n;
+			}
+
+			String path = requestLine.split(" ")[1];
+			Log.d(TAG, requestLine);
+			OutputStream out = socket.getOutputStream();
+			if (path.equals(GET_PATH)) {
+				mRequests.get(GET_PATH).incrementAndGet();
+				// The body is the whole form, URL encoded once more
+				String form = URLDecoder.decode(new String(body, "UTF-8"), "UTF-8");
+				answerGet(out, getParameters(form, false).get(0));
+			} else if (path.equals(BATCH_GET_PATH) && mBatchSupported) {
+				mRequests.get(BATCH_GET_PATH).incrementAndGet();
+				answerBatch(out, getParameters(new String(body, "UTF-8"), true));
+			} else {
+				respond(out, "404 Not Found", null, "");
+			}
+			out.flush();
+			socket.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to answer request", e);
+		}
+	}
+
+	/**
+	 * Answers a single GET.
+	 *
+	 * @param out			Where to write the response
+	 * @param uri			The requested ni URI
+	 * @throws IOException	In case writing failed
+	 */
+	private void answerGet(OutputStream out, String uri) throws IOException {
+		JSONObject json = describe(uri);
+		if (json == null) {
+			respond(out, "404 Not Found", null, "");
+		} else {
+			respond(out, "203 Non-Authoritative Information", "application/json", json.toJSONString());
+		}
+	}
+
+	/**
+	 * Answers a batch GET, streaming one JSON object per known URI.
+	 *
+	 * @param out			Where to write the response
+	 * @param uris			The requested ni URIs
+	 * @throws IOException	In case writing failed
+	 */
+	private void answerBatch(OutputStream out, List<String> uris) throws IOException {
+		out.write(("HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Connection: close\r\n\r\n").getBytes("UTF-8"));
+		for (String uri : uris) {
+			JSONObject json = describe(uri);
+			if (json != null) {
+				json.put("ni", uri);
+				out.write((json.toJSONString() + "\n").getBytes("UTF-8"));
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Describes a known object the way the NRS does.
+	 *
+	 * @param uri	The ni URI of the object
+	 * @return		The description, or null if the object is not known
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized JSONObject describe(String uri) {
+		String locator = mLocators.get(uri);
+		if (locator == null) {
+			return null;
+		}
+		JSONObject json = new JSONObject();
+		json.put("ct", "text/plain");
+		json.put("metadata", new JSONObject());
+		JSONArray locators = new JSONArray();
+		locators.add(locator);
+		json.put("loc", locators);
+		return json;
+	}
+
+	/**
+	 * Writes a complete response.
+	 *
+	 * @param out			Where to write the response
+	 * @param status		The status code and reason
+	 * @param contentType	The content type, or null
+	 * @param body			The body
+	 * @throws IOException	In case writing failed
+	 */
+	private void respond(OutputStream out, String status, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+		if (contentType != null) {
+			head.append("Content-Type: ").append(contentType).append("\r\n");
+		}
+		head.append("Content-Length: ").append(bytes.length).append("\r\n");
+		head.append("Connection: close\r\n\r\n");
+		out.write(head.toString().getBytes("UTF-8"));
+		out.write(bytes);
+	}
+
+	/**
+	 * Returns the values of the URI parameters of a form.
+	 *
+	 * @param form		The form
+	 * @param encoded	Whether the values are URL encoded
+	 * @return			The values of the URI parameters
+	 * @throws IOException	In case UTF-8 is not supported
+	 */
+	private List<String> getParameters(String form, boolean encoded) throws IOException {
+		List<String> uris = new ArrayList<String>();
+		for (String parameter : form.split("&")) {
+			if (parameter.startsWith("URI=")) {
+				String value = parameter.substring(4);
+				uris.add(encoded ? URLDecoder.decode(value, "UTF-8") : value);
+			}
+		}
+		return uris;
+	}
+
+	/**
+	 * Reads a CRLF terminated line.
+	 *
+	 * @param in			The stream
+	 * @return				The line without the line break
+	 * @throws IOException	In case reading failed
+	 */
+	private String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString("ISO-8859-1");
+	}
+}
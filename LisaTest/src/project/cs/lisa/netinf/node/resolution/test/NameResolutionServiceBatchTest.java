@@ -0,0 +1,103 @@
+package project.cs.lisa.netinf.node.resolution.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import netinf.common.datamodel.DatamodelFactory;
+import netinf.common.datamodel.DefinedAttributePurpose;
+import netinf.common.datamodel.Identifier;
+import netinf.common.datamodel.InformationObject;
+import netinf.common.datamodel.impl.DatamodelFactoryImpl;
+import project.cs.lisa.netinf.node.resolution.LocatorCache;
+import project.cs.lisa.netinf.node.resolution.NameResolutionService;
+import project.cs.lisa.util.HttpClientFactory;
+import project.cs.lisa.util.IOBuilder;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests batch NetInf GETs against a local stand-in for the NRS.
+ */
+public class NameResolutionServiceBatchTest extends AndroidTestCase {
+
+	/** The number of objects known by the stand-in. */
+	private static final int OBJECTS = 10;
+
+	/** The stand-in NRS. */
+	private MockNrs mNrs;
+
+	/** Creates identifiers. */
+	private DatamodelFactory mDatamodelFactory;
+
+	/** The service under test. */
+	private NameResolutionService mService;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mNrs = new MockNrs();
+		for (int i = 0; i < OBJECTS; i++) {
+			mNrs.addObject("ni:///sha-256;hash" + i, "nimacbt://00:11:22:33:44:" + (10 + i));
+		}
+		mDatamodelFactory = new DatamodelFactoryImpl();
+		mService = new NameResolutionService("http://127.0.0.1", mNrs.getPort(),
+				4, 32, "/DCIM/Shared/", false, mDatamodelFactory,
+				HttpClientFactory.createPooledClient(8, 8, 30),
+				new LocatorCache(64, 60, 600));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mNrs.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Creates the identifiers of the known objects and one unknown object.
+	 *
+	 * @return	The identifiers
+	 */
+	private List<Identifier> createIdentifiers() {
+		List<Identifier> identifiers = new ArrayList<Identifier>();
+		for (int i = 0; i <= OBJECTS; i++) {
+			identifiers.add(new IOBuilder(mDatamodelFactory).setHash("hash" + i)
+					.setHashAlgorithm("sha-256").build().getIdentifier());
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Checks that all identifiers are resolved with one batch request.
+	 */
+	public void testBatch() {
+		List<InformationObject> results = mService.getAll(createIdentifiers());
+
+		assertEquals(OBJECTS + 1, results.size());
+		for (int i = 0; i < OBJECTS; i++) {
+			assertNotNull(results.get(i));
+			assertEquals(1, results.get(i).getAttributesForPurpose(
+					DefinedAttributePurpose.LOCATOR_ATTRIBUTE.toString()).size());
+		}
+		assertNull(results.get(OBJECTS));
+		assertEquals(1, mNrs.getBatchRequests());
+		assertEquals(0, mNrs.getSingleRequests());
+
+		// The locators are cached now
+		mService.getAll(createIdentifiers().subList(0, OBJECTS));
+		assertEquals(1, mNrs.getBatchRequests());
+	}
+
+	/**
+	 * Checks the fallback to single requests when batches are not supported.
+	 */
+	public void testFallbackToSingleGets() {
+		mNrs.setBatchSupported(false);
+		List<InformationObject> results = mService.getAll(createIdentifiers());
+
+		for (int i = 0; i < OBJECTS; i++) {
+			assertNotNull(results.get(i));
+		}
+		assertNull(results.get(OBJECTS));
+		assertEquals(0, mNrs.getBatchRequests());
+		assertEquals(OBJECTS + 1, mNrs.getSingleRequests());
+	}
+}
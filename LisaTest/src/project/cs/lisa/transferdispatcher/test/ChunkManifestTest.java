@@ -0,0 +1,86 @@
+package project.cs.lisa.transferdispatcher.test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.transferdispatcher.ChunkManifest;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the chunk manifests used to fetch large BOs from several devices.
+ */
+public class ChunkManifestTest extends AndroidTestCase {
+
+    /** The chunk size used in the tests. */
+    private static final int CHUNK_SIZE = 1000;
+
+    /** The size of the test file, leaving a short last chunk. */
+    private static final int SIZE = 3 * CHUNK_SIZE + 17;
+
+    /**
+     * Checks that the chunks of a file match the manifest created from it
+     * and that the manifest survives encoding.
+     */
+    public void testCreateAndDecode() throws Exception {
+        byte[] data = new byte[SIZE];
+        new Random(SIZE).nextBytes(data);
+
+        File file = new File(getContext().getCacheDir(), "chunk-manifest-test");
+        try {
+            FileUtils.writeByteArrayToFile(file, data);
+            ChunkManifest manifest = ChunkManifest.create(file, CHUNK_SIZE);
+
+            assertEquals(SIZE, manifest.getSize());
+            assertEquals(4, manifest.getChunkCount());
+            assertEquals(17, manifest.getLength(3));
+
+            ChunkManifest decoded = ChunkManifest.decode(manifest.encode());
+            assertEquals(manifest.encode(), decoded.encode());
+
+            for (int chunk = 0; chunk < decoded.getChunkCount(); chunk++) {
+                int offset = (int) decoded.getOffset(chunk);
+                byte[] range = Arrays.copyOfRange(data, offset, offset + decoded.getLength(chunk));
+                assertTrue(decoded.matches(chunk, range));
+            }
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Checks that corrupt or truncated chunks are rejected.
+     */
+    public void testRejectsBadChunks() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        String hash = ContentHasher.INSTANCE.hash(chunk);
+        ChunkManifest manifest = new ChunkManifest(CHUNK_SIZE, CHUNK_SIZE, Arrays.asList(hash));
+
+        assertTrue(manifest.matches(0, chunk));
+        assertFalse(manifest.matches(0, new byte[CHUNK_SIZE - 1]));
+
+        chunk[0] = 1;
+        assertFalse(manifest.matches(0, chunk));
+    }
+
+    /**
+     * Checks that manifests whose hashes do not fit the sizes are refused.
+     */
+    public void testMalformed() {
+        try {
+            ChunkManifest.decode("2000;1000;onlyonehash");
+            fail("A manifest with a missing hash was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ChunkManifest.decode("garbage");
+            fail("A malformed manifest was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package project.cs.lisa.transferdispatcher.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+
+import project.cs.lisa.bluetooth.provider.StreamProvider;
+import project.cs.lisa.hash.ContentHasher;
+import project.cs.lisa.hash.Hash;
+import project.cs.lisa.transferdispatcher.TransferRace;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests racing several locators for one BO.
+ */
+public class TransferRaceTest extends AndroidTestCase {
+
+    /** The size of the test BOs. */
+    private static final int SIZE = 4096;
+
+    /**
+     * Checks that a BO whose name contains '/' is stored in a subdirectory
+     * that does not exist yet.
+     */
+    public void testStoresBoInMissingSubdirectory() throws Exception {
+        // Find data whose name puts the BO in a subdirectory
+        Random random = new Random(SIZE);
+        byte[] data = new byte[SIZE];
+        String hash;
+        do {
+            random.nextBytes(data);
+            hash = ContentHasher.INSTANCE.hash(data);
+        } while (!hash.contains("/"));
+
+        File folder = new File(getContext().getCacheDir(), "transfer-race-test");
+        File file = new File(folder, hash);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            FileUtils.deleteQuietly(folder);
+            assertFalse(file.getParentFile().exists());
+
+            Map<String, StreamProvider> sources = new LinkedHashMap<String, StreamProvider>();
+            sources.put("00:11:22:33:44:55", new FixedProvider(data));
+            new TransferRace(hash, Hash.ALGORITHM, 1, executor).run(sources, file);
+
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+            assertEquals(1, file.getParentFile().list().length);
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteQuietly(folder);
+        }
+    }
+
+    /** Delivers the same data for every request. */
+    private static class FixedProvider implements StreamProvider {
+
+        /** The data to deliver. */
+        private final byte[] mData;
+
+        /**
+         * Creates a provider delivering some data.
+         *
+         * @param data  The data to deliver
+         */
+        FixedProvider(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public long transfer(String locator, String hash, WritableByteChannel target)
+                throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(mData);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return mData.length;
+        }
+
+        @Override
+        public boolean canHandle(String locator) {
+            return true;
+        }
+
+        @Override
+        public String describe() {
+            return "Fixed data";
+        }
+    }
+}
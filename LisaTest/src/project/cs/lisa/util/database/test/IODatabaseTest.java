@@ -104,6 +104,12 @@ public class IODatabaseTest extends AndroidTestCase {
 		mIo = createIO();
 	}
 	
+	@Override
+	protected void tearDown() throws Exception {
+		mIoDatabase.close();
+		super.tearDown();
+	}
+	
 	/**
 	 * Creates an information object and tries to retrieve it again.
 	 * Checks whether adding and getting the IO inserted into the database
@@ -198,6 +204,41 @@ public class IODatabaseTest extends AndroidTestCase {
 	}
 	
 	
+	/**
+	 * Adds several information objects in one batch, one of them already stored.
+	 * All of them should be retrievable and no url should be stored twice.
+	 */
+	public void testAddIOs() {
+		List<InformationObject> batch = new LinkedList<InformationObject>();
+		batch.add(mIo);
+		for (int i = 0; i < 50; i++) {
+			IOBuilder builder = new IOBuilder(mDatamodelFactory);
+			batch.add(builder.setHash(HASH + i)
+					.setHashAlgorithm(HASH_ALG)
+					.setContentType(CONTENT_TYPE)
+					.addMetaData(LABEL_FILEPATH, FILE_PATH + i)
+					.addMetaData(LABEL_FILESIZE, FILE_SIZE)
+					.addMetaData(LABEL_URL, URL_3 + i).build());
+		}
+		
+		try {
+			mIoDatabase.addIO(mIo);
+			mIoDatabase.addIOs(batch);
+			
+			assertEquals(2, mIoDatabase.getURLs(HASH).size());
+			for (int i = 0; i < 50; i++) {
+				assertEquals(HASH + i, mIoDatabase.searchIO(URL_3 + i).getHash());
+				assertNotNull(mIoDatabase.getIO(HASH + i));
+			}
+		} catch (DatabaseException e) {
+			Assert.fail("Should not have thrown an exception.");
+		} finally {
+			for (int i = 0; i < 50; i++) {
+				mIoDatabase.deleteIO(HASH + i);
+			}
+		}
+	}
+	
 	/**
 	 * Tries to delete an information object from the database table.
 	 */
@@ -0,0 +1,69 @@
+package project.cs.lisa.util.test;
+
+import project.cs.lisa.util.BloomFilter;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests the Bloom filter used in front of the local database.
+ */
+public class BloomFilterTest extends AndroidTestCase {
+
+	/** Debug tag. */
+	private static final String TAG = "BloomFilterTest";
+
+	/** The number of strings added. */
+	private static final int INSERTIONS = 5000;
+
+	/** The false positive rate the filter is created with. */
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * Checks that every added string is found.
+	 */
+	public void testNoFalseNegatives() {
+		BloomFilter filter = new BloomFilter(INSERTIONS, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < INSERTIONS; i++) {
+			filter.put("h:" + i);
+		}
+		for (int i = 0; i < INSERTIONS; i++) {
+			assertTrue(filter.mightContain("h:" + i));
+		}
+		assertEquals(INSERTIONS, filter.getInsertions());
+	}
+
+	/**
+	 * Checks that the measured false positive rate is close to the requested one.
+	 */
+	public void testFalsePositiveRate() {
+		BloomFilter filter = new BloomFilter(INSERTIONS, FALSE_POSITIVE_RATE);
+		for (int i = 0; i < INSERTIONS; i++) {
+			filter.put("h:" + i);
+		}
+
+		int falsePositives = 0;
+		int lookups = 10 * INSERTIONS;
+		for (int i = 0; i < lookups; i++) {
+			if (filter.mightContain("u:http://www.example.com/" + i)) {
+				falsePositives++;
+			}
+		}
+
+		double measured = (double) falsePositives / lookups;
+		Log.d(TAG, filter + ", measured fpp=" + measured);
+		assertTrue(measured < 2 * FALSE_POSITIVE_RATE);
+		assertEquals(FALSE_POSITIVE_RATE, filter.getExpectedFalsePositiveRate(), FALSE_POSITIVE_RATE / 2);
+	}
+
+	/**
+	 * Checks that invalid false positive rates are rejected.
+	 */
+	public void testInvalidFalsePositiveRate() {
+		try {
+			new BloomFilter(INSERTIONS, 0);
+			fail("Should have thrown an exception.");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
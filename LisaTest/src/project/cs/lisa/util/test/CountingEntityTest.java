@@ -0,0 +1,44 @@
+package project.cs.lisa.util.test;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.http.entity.ByteArrayEntity;
+
+import project.cs.lisa.util.CountingEntity;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the entity wrapper used to measure publish uploads.
+ */
+public class CountingEntityTest extends AndroidTestCase {
+
+	/** The size of the wrapped entity. */
+	private static final int SIZE = 100000;
+
+	/**
+	 * Checks that every byte written is counted and passed through.
+	 */
+	public void testCountsBytesWritten() throws Exception {
+		byte[] data = new byte[SIZE];
+		CountingEntity entity = new CountingEntity(new ByteArrayEntity(data), false);
+		assertEquals(0, entity.getBytesWritten());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		assertEquals(SIZE, entity.getBytesWritten());
+		assertEquals(SIZE, out.size());
+	}
+
+	/**
+	 * Checks that a chunked entity announces no content length.
+	 */
+	public void testChunked() {
+		CountingEntity plain = new CountingEntity(new ByteArrayEntity(new byte[SIZE]), false);
+		assertFalse(plain.isChunked());
+		assertEquals(SIZE, plain.getContentLength());
+
+		CountingEntity chunked = new CountingEntity(new ByteArrayEntity(new byte[SIZE]), true);
+		assertTrue(chunked.isChunked());
+		assertEquals(-1, chunked.getContentLength());
+	}
+}
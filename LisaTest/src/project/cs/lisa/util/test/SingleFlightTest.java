@@ -0,0 +1,94 @@
+package project.cs.lisa.util.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.cs.lisa.util.SingleFlight;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the coalescing of concurrent calls with the same key.
+ */
+public class SingleFlightTest extends AndroidTestCase {
+
+	/** The number of concurrent callers. */
+	private static final int CALLERS = 8;
+
+	/**
+	 * Checks that concurrent callers with the same key share one call.
+	 */
+	public void testConcurrentCallsShareResult() throws Exception {
+		final SingleFlight<String> flight = new SingleFlight<String>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		final Callable<String> call = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				calls.incrementAndGet();
+				release.await();
+				return "result";
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < CALLERS; i++) {
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return flight.execute("sha-256;abc", call);
+				}
+			}));
+		}
+
+		// Let the callers pile up behind the first one
+		while (calls.get() == 0 || flight.getSharedCount() < CALLERS - 1) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+
+		for (Future<String> result : results) {
+			assertEquals("result", result.get(5, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+		assertEquals(1, calls.get());
+		assertEquals(CALLERS - 1, flight.getSharedCount());
+	}
+
+	/**
+	 * Checks that a finished call is not reused and that failures reach the caller.
+	 */
+	public void testSequentialCallsAndFailures() throws Exception {
+		SingleFlight<Integer> flight = new SingleFlight<Integer>();
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Integer> call = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return calls.incrementAndGet();
+			}
+		};
+
+		assertEquals(Integer.valueOf(1), flight.execute("key", call));
+		assertEquals(Integer.valueOf(2), flight.execute("key", call));
+
+		try {
+			flight.execute("key", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail("Expected the call's exception");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+	}
+}